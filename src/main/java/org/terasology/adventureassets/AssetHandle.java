@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets;
+
+import org.terasology.assets.Asset;
+import org.terasology.assets.AssetData;
+
+/**
+ * A typed handle to an asset, obtained from the {@link AssetHandleRegistry}. The asset is resolved from its urn once,
+ * and again only after it got disposed, e.g. because the modules got reloaded, so getting it on a hot path costs a
+ * field read instead of a lookup by string.
+ *
+ * @param <T> the type of the asset
+ * @param <U> the type of the data of the asset
+ */
+public final class AssetHandle<T extends Asset<U>, U extends AssetData> {
+    private final AssetHandleRegistry registry;
+    private final String urn;
+    private final Class<T> type;
+    private T asset;
+
+    AssetHandle(AssetHandleRegistry registry, String urn, Class<T> type) {
+        this.registry = registry;
+        this.urn = urn;
+        this.type = type;
+    }
+
+    /**
+     * @return the asset
+     * @throws java.util.NoSuchElementException if there is no such asset
+     */
+    public T get() {
+        if (asset == null || asset.isDisposed()) {
+            asset = registry.resolve(urn, type).get();
+        }
+        return asset;
+    }
+
+    /**
+     * @return whether the asset exists
+     */
+    boolean isAvailable() {
+        if (asset == null || asset.isDisposed()) {
+            asset = registry.resolve(urn, type).orElse(null);
+        }
+        return asset != null;
+    }
+
+    public String getUrn() {
+        return urn;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+}
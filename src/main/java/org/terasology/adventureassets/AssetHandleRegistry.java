@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terasology.assets.Asset;
+import org.terasology.assets.AssetData;
+import org.terasology.assets.management.AssetManager;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.registry.In;
+import org.terasology.registry.Share;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Hands out the {@link AssetHandle}s of the prefabs and materials the systems of this module use on their hot paths.
+ * Systems register the handles they need in their initialise(), keep them in fields and get the assets through them.
+ * All registered handles are resolved in {@link #postBegin()}, so missing assets are reported before they are used.
+ * <p>
+ * A handle of an asset which got disposed, e.g. because the module environment changed, resolves it again by itself.
+ * An asset which is reloaded in place keeps its instance, so its handle stays valid.
+ */
+@RegisterSystem
+@Share(AssetHandleRegistry.class)
+public class AssetHandleRegistry extends BaseComponentSystem {
+    private static final Logger logger = LoggerFactory.getLogger(AssetHandleRegistry.class);
+
+    @In
+    private AssetManager assetManager;
+
+    private final Map<String, AssetHandle<?, ?>> handlesByUrn = new LinkedHashMap<>();
+
+    /**
+     * Other systems may register their handles in their own initialise() before this system got its
+     * {@link AssetManager}, so the handles only resolve their assets when they are first used.
+     *
+     * @param urn the urn of the asset
+     * @param type the type of the asset
+     * @return the handle of the asset, the same one for each call with the same urn
+     */
+    @SuppressWarnings("unchecked")
+    public <T extends Asset<U>, U extends AssetData> AssetHandle<T, U> register(String urn, Class<T> type) {
+        AssetHandle<?, ?> handle = handlesByUrn.get(urn);
+        if (handle == null) {
+            handle = new AssetHandle<>(this, urn, type);
+            handlesByUrn.put(urn, handle);
+        } else if (handle.getType() != type) {
+            throw new IllegalArgumentException("Asset " + urn + " is already registered as " + handle.getType());
+        }
+        return (AssetHandle<T, U>) handle;
+    }
+
+    @Override
+    public void postBegin() {
+        resolveAll();
+    }
+
+    private void resolveAll() {
+        for (AssetHandle<?, ?> handle : handlesByUrn.values()) {
+            if (!handle.isAvailable()) {
+                logger.warn("Asset {} of type {} could not be resolved", handle.getUrn(),
+                        handle.getType().getSimpleName());
+            }
+        }
+    }
+
+    <T extends Asset<U>, U extends AssetData> Optional<T> resolve(String urn, Class<T> type) {
+        return assetManager.getAsset(urn, type);
+    }
+}
@@ -15,7 +15,8 @@
  */
 package org.terasology.adventureassets.altarofresurrection;
 
-import org.terasology.assets.management.AssetManager;
+import org.terasology.adventureassets.AssetHandle;
+import org.terasology.adventureassets.AssetHandleRegistry;
 import org.terasology.entitySystem.entity.EntityBuilder;
 import org.terasology.entitySystem.entity.EntityManager;
 import org.terasology.entitySystem.entity.EntityRef;
@@ -24,6 +25,7 @@ import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
 import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
 import org.terasology.entitySystem.event.ReceiveEvent;
 import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.entitySystem.prefab.PrefabData;
 import org.terasology.entitySystem.systems.BaseComponentSystem;
 import org.terasology.entitySystem.systems.RegisterMode;
 import org.terasology.entitySystem.systems.RegisterSystem;
@@ -34,9 +36,10 @@ import org.terasology.logic.players.LocalPlayer;
 import org.terasology.math.geom.Quat4f;
 import org.terasology.math.geom.Vector3f;
 import org.terasology.registry.In;
+import org.terasology.rendering.assets.material.Material;
+import org.terasology.rendering.assets.material.MaterialData;
 import org.terasology.rendering.logic.LightComponent;
 import org.terasology.rendering.logic.MeshComponent;
-import org.terasology.utilities.Assets;
 import org.terasology.world.block.BlockComponent;
 
 @RegisterSystem(RegisterMode.CLIENT)
@@ -46,9 +49,27 @@ public class ResurrectionClientSystem extends BaseComponentSystem {
     @In
     private LocalPlayer localPlayer;
     @In
-    private AssetManager assetManager;
-    @In
     private EntityManager entityManager;
+    @In
+    private AssetHandleRegistry assetHandleRegistry;
+
+    private AssetHandle<Prefab, PrefabData> angelMeshPrefab;
+    private AssetHandle<Prefab, PrefabData> angelOrbPrefab;
+    private AssetHandle<Prefab, PrefabData> particleEffectPrefab;
+    private AssetHandle<Prefab, PrefabData> smokeExplosionPrefab;
+    private AssetHandle<Material, MaterialData> angelActiveMaterial;
+    private AssetHandle<Material, MaterialData> angelInactiveMaterial;
+
+    @Override
+    public void initialise() {
+        angelMeshPrefab = assetHandleRegistry.register("AdventureAssets:altarOfResurrectionMesh", Prefab.class);
+        angelOrbPrefab = assetHandleRegistry.register("AdventureAssets:altarOfResurrectionOrb", Prefab.class);
+        particleEffectPrefab = assetHandleRegistry.register("AdventureAssets:altarOfResurrectionParticleEffect",
+                Prefab.class);
+        smokeExplosionPrefab = assetHandleRegistry.register("core:smokeExplosion", Prefab.class);
+        angelActiveMaterial = assetHandleRegistry.register("AdventureAssets:angelActive", Material.class);
+        angelInactiveMaterial = assetHandleRegistry.register("AdventureAssets:angelInactive", Material.class);
+    }
 
     /**
      * This method creates the mesh and the orb entity for the model visual and lighting once the altar of resurrection is
@@ -62,16 +83,14 @@ public class ResurrectionClientSystem extends BaseComponentSystem {
      */
     @ReceiveEvent(components = {AltarOfResurrectionRootComponent.class, BlockComponent.class})
     public void onAltarOfResurrectionCreated(OnActivatedComponent event, EntityRef entity, AltarOfResurrectionRootComponent altarOfResurrectionRootComponent) {
-        Prefab angelMeshPrefab = assetManager.getAsset("AdventureAssets:altarOfResurrectionMesh", Prefab.class).get();
-        EntityBuilder angelMeshEntityBuilder = entityManager.newBuilder(angelMeshPrefab);
+        EntityBuilder angelMeshEntityBuilder = entityManager.newBuilder(angelMeshPrefab.get());
         angelMeshEntityBuilder.setOwner(entity);
         angelMeshEntityBuilder.setPersistent(false);
         EntityRef angelMesh = angelMeshEntityBuilder.build();
         Location.attachChild(entity, angelMesh, new Vector3f(0, 1f, 0), new Quat4f(Quat4f.IDENTITY));
         altarOfResurrectionRootComponent.meshEntity = angelMesh;
 
-        Prefab angelOrbPrefab = assetManager.getAsset("AdventureAssets:altarOfResurrectionOrb", Prefab.class).get();
-        EntityBuilder angelOrbEntityBuilder = entityManager.newBuilder(angelOrbPrefab);
+        EntityBuilder angelOrbEntityBuilder = entityManager.newBuilder(angelOrbPrefab.get());
         angelOrbEntityBuilder.setOwner(entity);
         angelOrbEntityBuilder.setPersistent(false);
         EntityRef angelOrb = angelOrbEntityBuilder.build();
@@ -187,7 +206,7 @@ public class ResurrectionClientSystem extends BaseComponentSystem {
 
     private void changeMeshToInactive(EntityRef meshEntity) {
         MeshComponent meshComponent = meshEntity.getComponent(MeshComponent.class);
-        meshComponent.material = Assets.getMaterial("AdventureAssets:angelInactive").get();
+        meshComponent.material = angelInactiveMaterial.get();
         meshEntity.saveComponent(meshComponent);
         meshEntity.removeComponent(LightComponent.class);
         meshEntity.getOwner().removeComponent(LightComponent.class);
@@ -195,7 +214,7 @@ public class ResurrectionClientSystem extends BaseComponentSystem {
 
     private void changeMeshToActive(EntityRef meshEntity) {
         MeshComponent meshComponent = meshEntity.getComponent(MeshComponent.class);
-        meshComponent.material = Assets.getMaterial("AdventureAssets:angelActive").get();
+        meshComponent.material = angelActiveMaterial.get();
         meshEntity.saveComponent(meshComponent);
         meshEntity.addComponent(new LightComponent());
         meshEntity.getOwner().addComponent(new LightComponent());
@@ -203,12 +222,12 @@ public class ResurrectionClientSystem extends BaseComponentSystem {
 
     private void spawnParticlesOnActivate(Vector3f spawnPos) {
         // Create rising blue particles
-        EntityBuilder entityBuilder = entityManager.newBuilder("AdventureAssets:altarOfResurrectionParticleEffect");
+        EntityBuilder entityBuilder = entityManager.newBuilder(particleEffectPrefab.get());
         LocationComponent locationComponent = entityBuilder.getComponent(LocationComponent.class);
         locationComponent.setWorldPosition(spawnPos);
         entityBuilder.build();
         // Create a smoke explosion
-        entityBuilder = entityManager.newBuilder("core:smokeExplosion");
+        entityBuilder = entityManager.newBuilder(smokeExplosionPrefab.get());
         locationComponent = entityBuilder.getComponent(LocationComponent.class);
         locationComponent.setWorldPosition(spawnPos);
         entityBuilder.build();
@@ -216,7 +235,7 @@ public class ResurrectionClientSystem extends BaseComponentSystem {
 
     private void spawnParticlesOnDeactivate(Vector3f spawnPos) {
         // Create a smoke explosion
-        EntityBuilder entityBuilder = entityManager.newBuilder("core:smokeExplosion");
+        EntityBuilder entityBuilder = entityManager.newBuilder(smokeExplosionPrefab.get());
         LocationComponent locationComponent = entityBuilder.getComponent(LocationComponent.class);
         locationComponent.setWorldPosition(spawnPos);
         entityBuilder.build();
@@ -15,7 +15,8 @@
  */
 package org.terasology.adventureassets.altarofresurrection;
 
-import org.terasology.assets.management.AssetManager;
+import org.terasology.adventureassets.AssetHandle;
+import org.terasology.adventureassets.AssetHandleRegistry;
 import org.terasology.entitySystem.entity.EntityBuilder;
 import org.terasology.entitySystem.entity.EntityManager;
 import org.terasology.entitySystem.entity.EntityRef;
@@ -24,6 +25,7 @@ import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
 import org.terasology.entitySystem.event.EventPriority;
 import org.terasology.entitySystem.event.ReceiveEvent;
 import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.entitySystem.prefab.PrefabData;
 import org.terasology.entitySystem.systems.BaseComponentSystem;
 import org.terasology.entitySystem.systems.RegisterMode;
 import org.terasology.entitySystem.systems.RegisterSystem;
@@ -43,10 +45,17 @@ import org.terasology.world.block.BlockComponent;
 @RegisterSystem(RegisterMode.AUTHORITY)
 public class ResurrectionServerSystem extends BaseComponentSystem {
 
-    @In
-    private AssetManager assetManager;
     @In
     private EntityManager entityManager;
+    @In
+    private AssetHandleRegistry assetHandleRegistry;
+
+    private AssetHandle<Prefab, PrefabData> angelColliderPrefab;
+
+    @Override
+    public void initialise() {
+        angelColliderPrefab = assetHandleRegistry.register("AdventureAssets:altarOfResurrectionCollider", Prefab.class);
+    }
 
     /**
      * This method intercepts the RespawnRequestEvent and makes a change to the LocationComponent of the client after
@@ -77,8 +86,7 @@ public class ResurrectionServerSystem extends BaseComponentSystem {
      */
     @ReceiveEvent(components = {AltarOfResurrectionRootComponent.class, BlockComponent.class})
     public void onAltarOfResurrectionCreated(OnActivatedComponent event, EntityRef entity, AltarOfResurrectionRootComponent altarOfResurrectionRootComponent) {
-        Prefab angelColliderPrefab = assetManager.getAsset("AdventureAssets:altarOfResurrectionCollider", Prefab.class).get();
-        EntityBuilder angelColliderEntityBuilder = entityManager.newBuilder(angelColliderPrefab);
+        EntityBuilder angelColliderEntityBuilder = entityManager.newBuilder(angelColliderPrefab.get());
         angelColliderEntityBuilder.setOwner(entity);
         angelColliderEntityBuilder.setPersistent(true);
         EntityRef angelCollider = angelColliderEntityBuilder.build();
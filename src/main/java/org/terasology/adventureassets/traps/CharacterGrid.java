@@ -0,0 +1,377 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TLongSet;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.world.chunks.ChunkConstants;
+
+import java.util.Arrays;
+
+/**
+ * The positions and capsules of the characters, projected onto a coarse uniform grid with cells the size of a chunk.
+ * <p>
+ * Characters are updated one by one as they move, and each cell keeps the slots of the characters in it, so queries
+ * only look at the characters in the cells they overlap.
+ */
+public class CharacterGrid {
+    public static final int CELL_SIZE = ChunkConstants.SIZE_X;
+
+    private static final int KEY_BITS = 21;
+    private static final long KEY_MASK = (1L << KEY_BITS) - 1;
+
+    private float[] xs = new float[8];
+    private float[] ys = new float[8];
+    private float[] zs = new float[8];
+    private float[] radii = new float[8];
+    private float[] halfHeights = new float[8];
+    private boolean[] players = new boolean[8];
+    private long[] cells = new long[8];
+    private EntityRef[] characters = new EntityRef[8];
+    private int size;
+    private float maxExtent;
+    private final TLongIntMap slotsById = new TLongIntHashMap(8, 0.5f, -1L, -1);
+    private final TLongObjectMap<TIntList> slotsByCell = new TLongObjectHashMap<>();
+
+    /**
+     * @return the key of the cell containing the given position
+     */
+    public static long cellKey(float x, float y, float z) {
+        return cellKey(cellCoordinate(x), cellCoordinate(y), cellCoordinate(z));
+    }
+
+    public static long cellKey(int cellX, int cellY, int cellZ) {
+        return ((cellX & KEY_MASK) << (2 * KEY_BITS)) | ((cellY & KEY_MASK) << KEY_BITS) | (cellZ & KEY_MASK);
+    }
+
+    private static int cellCoordinate(float coordinate) {
+        return (int) Math.floor(coordinate / CELL_SIZE);
+    }
+
+    public void clear() {
+        Arrays.fill(characters, 0, size, null);
+        slotsById.clear();
+        slotsByCell.clear();
+        size = 0;
+        maxExtent = 0;
+    }
+
+    /**
+     * Adds the character, or updates it if it is already in the grid.
+     *
+     * @param character the character entity
+     * @param position the world position of the center of the character
+     * @param radius the radius of the capsule of the character
+     * @param halfHeight half the height of the capsule of the character
+     * @param player whether the character is controlled by a player
+     */
+    public void set(EntityRef character, Vector3f position, float radius, float halfHeight, boolean player) {
+        long cell = cellKey(position.x, position.y, position.z);
+        int slot = slotsById.get(character.getId());
+        if (slot == -1) {
+            if (size == xs.length) {
+                grow(size * 2);
+            }
+            slot = size++;
+            slotsById.put(character.getId(), slot);
+            characters[slot] = character;
+            addToCell(cell, slot);
+        } else if (cells[slot] != cell) {
+            removeFromCell(cells[slot], slot);
+            addToCell(cell, slot);
+        }
+        xs[slot] = position.x;
+        ys[slot] = position.y;
+        zs[slot] = position.z;
+        radii[slot] = radius;
+        halfHeights[slot] = halfHeight;
+        players[slot] = player;
+        cells[slot] = cell;
+        maxExtent = Math.max(maxExtent, radius + halfHeight);
+    }
+
+    /**
+     * Removes the character, moving the last character into its slot.
+     *
+     * @param character the character entity
+     */
+    public void remove(EntityRef character) {
+        int slot = slotsById.remove(character.getId());
+        if (slot == -1) {
+            return;
+        }
+        removeFromCell(cells[slot], slot);
+        int last = --size;
+        if (slot != last) {
+            removeFromCell(cells[last], last);
+            xs[slot] = xs[last];
+            ys[slot] = ys[last];
+            zs[slot] = zs[last];
+            radii[slot] = radii[last];
+            halfHeights[slot] = halfHeights[last];
+            players[slot] = players[last];
+            cells[slot] = cells[last];
+            characters[slot] = characters[last];
+            slotsById.put(characters[slot].getId(), slot);
+            addToCell(cells[slot], slot);
+        }
+        characters[last] = null;
+    }
+
+    private void grow(int capacity) {
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        zs = Arrays.copyOf(zs, capacity);
+        radii = Arrays.copyOf(radii, capacity);
+        halfHeights = Arrays.copyOf(halfHeights, capacity);
+        players = Arrays.copyOf(players, capacity);
+        cells = Arrays.copyOf(cells, capacity);
+        characters = Arrays.copyOf(characters, capacity);
+    }
+
+    private void addToCell(long cell, int slot) {
+        TIntList slots = slotsByCell.get(cell);
+        if (slots == null) {
+            slots = new TIntArrayList(4);
+            slotsByCell.put(cell, slots);
+        }
+        slots.add(slot);
+    }
+
+    private void removeFromCell(long cell, int slot) {
+        TIntList slots = slotsByCell.get(cell);
+        if (slots != null) {
+            slots.remove(slot);
+            if (slots.isEmpty()) {
+                slotsByCell.remove(cell);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public EntityRef getCharacter(int index) {
+        return characters[index];
+    }
+
+    public float getX(int index) {
+        return xs[index];
+    }
+
+    public float getY(int index) {
+        return ys[index];
+    }
+
+    public float getZ(int index) {
+        return zs[index];
+    }
+
+    public float getRadius(int index) {
+        return radii[index];
+    }
+
+    public float getHalfHeight(int index) {
+        return halfHeights[index];
+    }
+
+    public boolean isPlayer(int index) {
+        return players[index];
+    }
+
+    /**
+     * @return the largest distance of any point of a character from its center, over all characters added since the
+     * grid was last cleared
+     */
+    public float getMaxExtent() {
+        return maxExtent;
+    }
+
+    /**
+     * Adds the indices of the characters in the cells overlapping the bounding box of the given distance around a
+     * point, e.g. the characters a trap may reach. The characters are not checked against the actual distance.
+     *
+     * @param x the x coordinate of the point
+     * @param y the y coordinate of the point
+     * @param z the z coordinate of the point
+     * @param distance the maximum distance (in blocks) of the characters from the point
+     * @param indices the list the indices are added to
+     */
+    public void collectNear(float x, float y, float z, float distance, TIntList indices) {
+        if (size == 0) {
+            return;
+        }
+        int maxCellX = cellCoordinate(x + distance);
+        int maxCellY = cellCoordinate(y + distance);
+        int maxCellZ = cellCoordinate(z + distance);
+        for (int cellX = cellCoordinate(x - distance); cellX <= maxCellX; cellX++) {
+            for (int cellY = cellCoordinate(y - distance); cellY <= maxCellY; cellY++) {
+                for (int cellZ = cellCoordinate(z - distance); cellZ <= maxCellZ; cellZ++) {
+                    TIntList slots = slotsByCell.get(cellKey(cellX, cellY, cellZ));
+                    if (slots == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < slots.size(); i++) {
+                        indices.add(slots.get(i));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks whether any character is within the given distance of a line segment, e.g. the firing line of a fireball
+     * launcher. Only the characters in the cells overlapping the bounding box of the segment, widened by the
+     * distance, are looked at.
+     *
+     * @param start the start of the segment
+     * @param direction the direction of the segment, which needs not be normalized
+     * @param length the length of the segment (in blocks)
+     * @param distance the maximum distance (in blocks) of the characters from the segment
+     * @return whether a character is within the distance
+     */
+    public boolean isAnyWithin(Vector3f start, Vector3f direction, float length, float distance) {
+        if (size == 0) {
+            return false;
+        }
+        float directionLength = direction.length();
+        float dx = 0;
+        float dy = 0;
+        float dz = 0;
+        if (directionLength > 0) {
+            dx = direction.x / directionLength * length;
+            dy = direction.y / directionLength * length;
+            dz = direction.z / directionLength * length;
+        }
+        float segmentLengthSquared = dx * dx + dy * dy + dz * dz;
+        int maxCellX = cellCoordinate(Math.max(start.x, start.x + dx) + distance);
+        int maxCellY = cellCoordinate(Math.max(start.y, start.y + dy) + distance);
+        int maxCellZ = cellCoordinate(Math.max(start.z, start.z + dz) + distance);
+        for (int x = cellCoordinate(Math.min(start.x, start.x + dx) - distance); x <= maxCellX; x++) {
+            for (int y = cellCoordinate(Math.min(start.y, start.y + dy) - distance); y <= maxCellY; y++) {
+                for (int z = cellCoordinate(Math.min(start.z, start.z + dz) - distance); z <= maxCellZ; z++) {
+                    TIntList slots = slotsByCell.get(cellKey(x, y, z));
+                    if (slots == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < slots.size(); i++) {
+                        int slot = slots.get(i);
+                        float px = xs[slot] - start.x;
+                        float py = ys[slot] - start.y;
+                        float pz = zs[slot] - start.z;
+                        float t = 0;
+                        if (segmentLengthSquared > 0) {
+                            t = Math.max(0, Math.min(1, (px * dx + py * dy + pz * dz) / segmentLengthSquared));
+                        }
+                        float ox = px - t * dx;
+                        float oy = py - t * dy;
+                        float oz = pz - t * dz;
+                        if (ox * ox + oy * oy + oz * oz <= distance * distance) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the nearest player within a cone, e.g. for a fireball launcher to aim at. Only the characters in the cells
+     * overlapping the bounding box of the range are looked at.
+     *
+     * @param apex the apex of the cone
+     * @param axis the normalized axis of the cone
+     * @param cosHalfAngle the cosine of the angle between the axis and the surface of the cone
+     * @param range the maximum distance (in blocks) from the apex
+     * @return the index of the nearest player, or -1 if there is none in the cone
+     */
+    public int findNearestPlayer(Vector3f apex, Vector3f axis, float cosHalfAngle, float range) {
+        if (size == 0) {
+            return -1;
+        }
+        int nearest = -1;
+        float nearestDistanceSquared = range * range;
+        int maxCellX = cellCoordinate(apex.x + range);
+        int maxCellY = cellCoordinate(apex.y + range);
+        int maxCellZ = cellCoordinate(apex.z + range);
+        for (int x = cellCoordinate(apex.x - range); x <= maxCellX; x++) {
+            for (int y = cellCoordinate(apex.y - range); y <= maxCellY; y++) {
+                for (int z = cellCoordinate(apex.z - range); z <= maxCellZ; z++) {
+                    TIntList slots = slotsByCell.get(cellKey(x, y, z));
+                    if (slots == null) {
+                        continue;
+                    }
+                    for (int i = 0; i < slots.size(); i++) {
+                        int slot = slots.get(i);
+                        if (!players[slot]) {
+                            continue;
+                        }
+                        float dx = xs[slot] - apex.x;
+                        float dy = ys[slot] - apex.y;
+                        float dz = zs[slot] - apex.z;
+                        float distanceSquared = dx * dx + dy * dy + dz * dz;
+                        if (distanceSquared > nearestDistanceSquared) {
+                            continue;
+                        }
+                        float projection = dx * axis.x + dy * axis.y + dz * axis.z;
+                        if (projection >= cosHalfAngle * (float) Math.sqrt(distanceSquared)) {
+                            nearest = slot;
+                            nearestDistanceSquared = distanceSquared;
+                        }
+                    }
+                }
+            }
+        }
+        return nearest;
+    }
+
+    /**
+     * Adds the keys of all cells which overlap the bounding box of the given radius around any character.
+     *
+     * @param radius the distance (in blocks) from the characters
+     * @param cells the set the cell keys are added to
+     */
+    public void markCellsWithin(float radius, TLongSet cells) {
+        for (int i = 0; i < size; i++) {
+            int minX = cellCoordinate(xs[i] - radius);
+            int minY = cellCoordinate(ys[i] - radius);
+            int minZ = cellCoordinate(zs[i] - radius);
+            int maxX = cellCoordinate(xs[i] + radius);
+            int maxY = cellCoordinate(ys[i] + radius);
+            int maxZ = cellCoordinate(zs[i] + radius);
+            for (int x = minX; x <= maxX; x++) {
+                for (int y = minY; y <= maxY; y++) {
+                    for (int z = minZ; z <= maxZ; z++) {
+                        cells.add(cellKey(x, y, z));
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeRemoveComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
+import org.terasology.logic.characters.CharacterComponent;
+import org.terasology.logic.characters.CharacterMovementComponent;
+import org.terasology.logic.location.LocationComponent;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.network.ClientComponent;
+import org.terasology.registry.In;
+import org.terasology.registry.Share;
+
+/**
+ * Keeps a {@link CharacterGrid} of all characters up to date, which the trap systems use to find out whether a trap
+ * is relevant to any character or needs its child entities, which characters an analytic trap hazard may hit, and which
+ * player a fireball launcher aims at. The grid is updated incrementally, from the location changes of the characters.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+@Share(CharacterGridSystem.class)
+public class CharacterGridSystem extends BaseComponentSystem implements UpdateSubscriberSystem {
+
+    @In
+    private TrapSettingsSystem trapSettingsSystem;
+
+    private CharacterGrid grid = new CharacterGrid();
+    private TLongSet relevantCells = new TLongHashSet();
+    private TLongSet materializedCells = new TLongHashSet();
+    private TLongSet retainedCells = new TLongHashSet();
+    private Vector3f position = new Vector3f();
+
+    @ReceiveEvent(components = {CharacterComponent.class, LocationComponent.class})
+    public void onCharacterActivated(OnActivatedComponent event, EntityRef character) {
+        updateCharacter(character);
+    }
+
+    /**
+     * Moves the character in the grid whenever its location changes, and updates whether it is a player when its
+     * controller changes.
+     *
+     * @param event
+     * @param character
+     */
+    @ReceiveEvent(components = {CharacterComponent.class, LocationComponent.class})
+    public void onCharacterChanged(OnChangedComponent event, EntityRef character) {
+        updateCharacter(character);
+    }
+
+    @ReceiveEvent(components = {CharacterComponent.class, LocationComponent.class})
+    public void onCharacterDeactivated(BeforeDeactivateComponent event, EntityRef character) {
+        grid.remove(character);
+    }
+
+    @ReceiveEvent(components = {CharacterComponent.class, LocationComponent.class})
+    public void onCharacterRemoved(BeforeRemoveComponent event, EntityRef character) {
+        grid.remove(character);
+    }
+
+    private void updateCharacter(EntityRef character) {
+        character.getComponent(LocationComponent.class).getWorldPosition(position);
+        CharacterComponent characterComponent = character.getComponent(CharacterComponent.class);
+        boolean player = characterComponent.controller.hasComponent(ClientComponent.class);
+        CharacterMovementComponent movementComponent = character.getComponent(CharacterMovementComponent.class);
+        if (movementComponent != null) {
+            grid.set(character, position, movementComponent.radius, movementComponent.height * 0.5f, player);
+        } else {
+            grid.set(character, position, 0, 0, player);
+        }
+    }
+
+    /**
+     * Rebuilds the cell sets of the features which are enabled. The sets of a disabled feature are left as they are,
+     * since nobody reads them.
+     *
+     * @param delta
+     */
+    @Override
+    public void update(float delta) {
+        if (isCulling()) {
+            relevantCells.clear();
+            grid.markCellsWithin(trapSettingsSystem.getSettings().animationRelevanceRadius, relevantCells);
+        }
+        if (isMaterializing()) {
+            float radius = trapSettingsSystem.getSettings().materializationRadius;
+            materializedCells.clear();
+            retainedCells.clear();
+            grid.markCellsWithin(radius, materializedCells);
+            grid.markCellsWithin(radius + CharacterGrid.CELL_SIZE, retainedCells);
+        }
+    }
+
+    public CharacterGrid getGrid() {
+        return grid;
+    }
+
+    /**
+     * @return whether traps far away from all characters should be culled
+     */
+    public boolean isCulling() {
+        return trapSettingsSystem.getSettings().animationRelevanceRadius > 0;
+    }
+
+    /**
+     * @return the keys of the {@link CharacterGrid} cells within the animation relevance radius of any character,
+     * only kept up to date while {@link #isCulling()}
+     */
+    public TLongSet getRelevantCells() {
+        return relevantCells;
+    }
+
+    /**
+     * @return whether traps far away from all characters should release their child entities
+     */
+    public boolean isMaterializing() {
+        return trapSettingsSystem.getSettings().materializationRadius > 0;
+    }
+
+    /**
+     * @return the keys of the {@link CharacterGrid} cells within the materialization radius of any character, in which
+     * traps get their child entities, only kept up to date while {@link #isMaterializing()}
+     */
+    public TLongSet getMaterializedCells() {
+        return materializedCells;
+    }
+
+    /**
+     * @return the keys of the {@link CharacterGrid} cells up to a cell further away than the materialized cells, in
+     * which traps keep their child entities, only kept up to date while {@link #isMaterializing()}
+     */
+    public TLongSet getRetainedCells() {
+        return retainedCells;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+/**
+ * Turns the variable engine updates into ticks at a fixed rate.
+ * <p>
+ * The trap poses are a closed form of the game time, so ticks which were missed are not caught up on: after a long
+ * frame there is a single tick, evaluated at the current game time.
+ */
+public class FixedRateTick {
+    private float accumulator;
+
+    /**
+     * @param delta the time (in seconds) since the last engine update
+     * @param rate the tick rate (in Hz), or 0 to tick on every update
+     * @return whether a tick is due in this update
+     */
+    public boolean advance(float delta, float rate) {
+        if (rate <= 0) {
+            return true;
+        }
+        float interval = 1f / rate;
+        accumulator += delta;
+        if (accumulator < interval) {
+            return false;
+        }
+        accumulator %= interval;
+        return true;
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.TLongSet;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.logic.location.LocationComponent;
+import org.terasology.math.geom.Quat4f;
+import org.terasology.math.geom.Vector3f;
+
+import java.util.Arrays;
+
+/**
+ * A {@link TrapRegistry} which also keeps the animation parameters of its traps in parallel arrays, indexed by slot.
+ * Only traps in motion are meant to be in the batch, so stopped traps cost nothing per frame.
+ * <p>
+ * All poses are computed in one loop over the arrays in {@link #update(float, float[])}, and {@link
+ * #writeBack(boolean)} then only touches the {@link LocationComponent} of the traps whose pose actually changed.
+ * Traps can be culled with {@link #cull(TLongSet)}, in which case they are neither updated nor written back until they
+ * become relevant again. Since the pose is a closed form of the game time, they then snap right to the correct phase.
+ * <p>
+ * Updating the poses allocates nothing: the axes that are not animated are decomposed once, when the parameters are
+ * set, and cached as the sine and cosine of their half angles, from which the rotation is composed in a scratch
+ * quaternion.
+ * <p>
+ * With {@link #sweepHazards(TrapHazard[], CharacterGrid)} the traps hit characters analytically, from the arc they
+ * moved along since the previous update.
+ */
+public class TrapAnimationBatch extends TrapRegistry {
+    /**
+     * Angle changes (in radians) below this are not written back.
+     */
+    private static final float POSE_EPSILON = 0.0001f;
+    private static final float TWO_PI = (float) (2 * Math.PI);
+
+    public enum Motion {
+        /**
+         * Swings the pitch: amplitude * cos(omega * t + phase)
+         */
+        PENDULUM,
+        /**
+         * Rotates the yaw: direction * (omega * t + phase)
+         */
+        ROTOR
+    }
+
+    private final Motion motion;
+
+    private float[] period = new float[0];
+    private float[] omega = new float[0];
+    private float[] amplitude = new float[0];
+    private float[] phase = new float[0];
+    private float[] direction = new float[0];
+    private float[] cosHalfYaw = new float[0];
+    private float[] sinHalfYaw = new float[0];
+    private float[] cosHalfPitch = new float[0];
+    private float[] sinHalfPitch = new float[0];
+    private float[] cosHalfRoll = new float[0];
+    private float[] sinHalfRoll = new float[0];
+    private float[] positionX = new float[0];
+    private float[] positionY = new float[0];
+    private float[] positionZ = new float[0];
+    private int[] clock = new int[0];
+    private long[] cell = new long[0];
+    private boolean[] relevant = new boolean[0];
+    private float[] argument = new float[0];
+    private float[] previousArgument = new float[0];
+    private float[] angle = new float[0];
+    private float[] previousAngle = new float[0];
+    private float[] writtenAngle = new float[0];
+
+    private final Quat4f scratchRotation = new Quat4f();
+    private final TIntArrayList nearbyCharacters = new TIntArrayList();
+    private boolean writingBack;
+    private boolean fastTrigonometry;
+
+    public TrapAnimationBatch(Motion motion) {
+        this.motion = motion;
+        grow(16);
+    }
+
+    /**
+     * Adds the trap if needed, and sets its animation parameters.
+     *
+     * @param entity the trap entity
+     * @param timePeriod the time (in seconds) of one period of the motion
+     * @param amplitude the maximum angle (in radians) of a pendulum, ignored for rotors
+     * @param phase the phase (in radians) at game time 0
+     * @param direction the direction of a rotor (1: anticlockwise, -1: clockwise), ignored for pendulums
+     * @param baseRotation the rotation of the trap, of which only the axes not animated are kept
+     * @param position the world position of the trap
+     * @param clockIndex the index of the clock group of the trap, or {@link TrapClockSystem#NO_CLOCK}
+     */
+    public void set(EntityRef entity, float timePeriod, float amplitude, float phase, float direction,
+                    Quat4f baseRotation, Vector3f position, int clockIndex) {
+        add(entity);
+        int slot = slotOf(entity);
+        this.period[slot] = timePeriod;
+        this.omega[slot] = (float) (2 * Math.PI / timePeriod);
+        this.amplitude[slot] = amplitude;
+        this.phase[slot] = phase;
+        this.direction[slot] = direction;
+        float yaw = baseRotation.getYaw();
+        float pitch = baseRotation.getPitch();
+        float roll = baseRotation.getRoll();
+        this.cosHalfYaw[slot] = (float) Math.cos(yaw * 0.5f);
+        this.sinHalfYaw[slot] = (float) Math.sin(yaw * 0.5f);
+        this.cosHalfPitch[slot] = (float) Math.cos(pitch * 0.5f);
+        this.sinHalfPitch[slot] = (float) Math.sin(pitch * 0.5f);
+        this.cosHalfRoll[slot] = (float) Math.cos(roll * 0.5f);
+        this.sinHalfRoll[slot] = (float) Math.sin(roll * 0.5f);
+        this.positionX[slot] = position.x;
+        this.positionY[slot] = position.y;
+        this.positionZ[slot] = position.z;
+        this.clock[slot] = clockIndex;
+        this.cell[slot] = CharacterGrid.cellKey(position.x, position.y, position.z);
+        this.relevant[slot] = true;
+        this.angle[slot] = Float.NaN;
+        this.writtenAngle[slot] = Float.NaN;
+    }
+
+    /**
+     * Computes the animated angle of every relevant trap for the given game time. Traps in a clock group use the time
+     * of their group instead, which the {@link TrapClockSystem} evaluated once for all of its members.
+     *
+     * @param gameTime the current game time (in seconds)
+     * @param clockTimes the time of each clock group (in seconds), indexed by clock index
+     */
+    public void update(float gameTime, float[] clockTimes) {
+        int size = size();
+        System.arraycopy(angle, 0, previousAngle, 0, size);
+        if (motion == Motion.PENDULUM) {
+            System.arraycopy(argument, 0, previousArgument, 0, size);
+            for (int i = 0; i < size; i++) {
+                if (!relevant[i]) {
+                    continue;
+                }
+                float t = clock[i] == TrapClockSystem.NO_CLOCK ? gameTime : clockTimes[clock[i]];
+                argument[i] = omega[i] * (t % period[i]) + phase[i];
+                angle[i] = amplitude[i] * cos(argument[i]);
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                if (!relevant[i]) {
+                    continue;
+                }
+                float t = clock[i] == TrapClockSystem.NO_CLOCK ? gameTime : clockTimes[clock[i]];
+                angle[i] = direction[i] * (omega[i] * (t % period[i]) + phase[i]);
+            }
+        }
+    }
+
+    /**
+     * Marks the traps outside of the given {@link CharacterGrid} cells as not relevant, so that they are neither
+     * updated nor written back. Call this before {@link #update(float, float[])}.
+     *
+     * @param relevantCells the keys of the cells in which traps are relevant
+     */
+    public void cull(TLongSet relevantCells) {
+        int size = size();
+        for (int i = 0; i < size; i++) {
+            setRelevant(i, relevantCells.contains(cell[i]));
+        }
+    }
+
+    /**
+     * Marks all traps as relevant again, e.g. once culling got disabled.
+     */
+    public void uncull() {
+        int size = size();
+        for (int i = 0; i < size; i++) {
+            setRelevant(i, true);
+        }
+    }
+
+    private void setRelevant(int slot, boolean relevance) {
+        if (relevance && !relevant[slot]) {
+            // the angle is stale, so the next update must not sweep from it
+            angle[slot] = Float.NaN;
+        }
+        relevant[slot] = relevance;
+    }
+
+    /**
+     * Applies the angles computed in the last {@link #update(float, float[])} to the traps that are relevant and whose
+     * angle changed since it was last written.
+     *
+     * @param replicate whether the changed {@link LocationComponent}s should be saved, and thus replicated
+     */
+    public void writeBack(boolean replicate) {
+        writingBack = true;
+        try {
+            int size = size();
+            for (int i = 0; i < size; i++) {
+                if (!relevant[i] || Math.abs(angle[i] - writtenAngle[i]) <= POSE_EPSILON) {
+                    continue;
+                }
+                float cosHalfAngle = cos(angle[i] * 0.5f);
+                float sinHalfAngle = sin(angle[i] * 0.5f);
+                if (motion == Motion.PENDULUM) {
+                    setRotation(scratchRotation, cosHalfYaw[i], sinHalfYaw[i], cosHalfAngle, sinHalfAngle,
+                            cosHalfRoll[i], sinHalfRoll[i]);
+                } else {
+                    setRotation(scratchRotation, cosHalfAngle, sinHalfAngle, cosHalfPitch[i], sinHalfPitch[i],
+                            cosHalfRoll[i], sinHalfRoll[i]);
+                }
+                if (writePose(i, scratchRotation, replicate)) {
+                    writtenAngle[i] = angle[i];
+                }
+            }
+        } finally {
+            writingBack = false;
+        }
+    }
+
+    /**
+     * Sets the local rotation of the trap in the given slot. Subclasses may write the pose elsewhere, e.g. to measure
+     * the batch without an entity system.
+     *
+     * @param slot the slot of the trap
+     * @param rotation the new local rotation, which is reused for the next trap
+     * @param replicate whether the changed {@link LocationComponent} should be saved
+     * @return whether the pose was written, false if the trap has no location
+     */
+    protected boolean writePose(int slot, Quat4f rotation, boolean replicate) {
+        EntityRef entity = get(slot);
+        LocationComponent locationComponent = entity.getComponent(LocationComponent.class);
+        if (locationComponent == null) {
+            return false;
+        }
+        locationComponent.setLocalRotation(rotation);
+        if (replicate) {
+            entity.saveComponent(locationComponent);
+        }
+        return true;
+    }
+
+    /**
+     * Tests the characters against the hazards of every relevant trap, swept along the arc the trap moved along
+     * between the last two calls of {@link #update(float, float[])}. A character is hit at most once per trap and call.
+     * <p>
+     * The swept angles include the amplitude of a pendulum which turned around during the tick. Only the characters in
+     * the {@link CharacterGrid} cells within reach of a trap are looked at.
+     * <p>
+     * The character is transformed into the frame of the trap, with the animated angle removed. There its points
+     * move on circles around the animation axis: p(a) = base + cosine * cos(a) + sine * sin(a), which the hazards
+     * intersect exactly. The capsule of the character is approximated by the spheres at its bottom, center and top.
+     *
+     * @param hazards the boxes attached to each trap
+     * @param characters the characters that may be hit
+     */
+    public void sweepHazards(TrapHazard[] hazards, CharacterGrid characters) {
+        if (characters.isEmpty()) {
+            return;
+        }
+        float reach = 0;
+        for (TrapHazard hazard : hazards) {
+            reach = Math.max(reach, hazard.getReach());
+        }
+        float queryDistance = reach + characters.getMaxExtent();
+        int size = size();
+        for (int i = 0; i < size; i++) {
+            if (!relevant[i]) {
+                continue;
+            }
+            float toAngle = angle[i];
+            float fromAngle = Float.isNaN(previousAngle[i]) ? toAngle : previousAngle[i];
+            if (motion == Motion.ROTOR) {
+                // the angle wraps around once per period
+                fromAngle += (float) (2 * Math.PI * Math.round((toAngle - fromAngle) / (2 * Math.PI)));
+            }
+            float minAngle = Math.min(fromAngle, toAngle);
+            float maxAngle = Math.max(fromAngle, toAngle);
+            if (motion == Motion.PENDULUM && !Float.isNaN(previousAngle[i])) {
+                // the argument only wraps around by whole periods, so the shortest change is the one of this tick
+                float fromArgument = previousArgument[i];
+                float deltaArgument = argument[i] - fromArgument;
+                deltaArgument -= TWO_PI * Math.round(deltaArgument / TWO_PI);
+                double lowerArgument = Math.min(fromArgument, fromArgument + deltaArgument);
+                double upperArgument = Math.max(fromArgument, fromArgument + deltaArgument);
+                // the pendulum turns around at the multiples of pi, at +amplitude for even and -amplitude for odd ones
+                for (long turn = (long) Math.ceil(lowerArgument / Math.PI); turn * Math.PI <= upperArgument; turn++) {
+                    float turnAngle = (turn & 1) == 0 ? amplitude[i] : -amplitude[i];
+                    minAngle = Math.min(minAngle, turnAngle);
+                    maxAngle = Math.max(maxAngle, turnAngle);
+                }
+            }
+            float cosYaw = cosHalfYaw[i] * cosHalfYaw[i] - sinHalfYaw[i] * sinHalfYaw[i];
+            float sinYaw = 2 * sinHalfYaw[i] * cosHalfYaw[i];
+            float cosPitch = cosHalfPitch[i] * cosHalfPitch[i] - sinHalfPitch[i] * sinHalfPitch[i];
+            float sinPitch = 2 * sinHalfPitch[i] * cosHalfPitch[i];
+            float cosRoll = cosHalfRoll[i] * cosHalfRoll[i] - sinHalfRoll[i] * sinHalfRoll[i];
+            float sinRoll = 2 * sinHalfRoll[i] * cosHalfRoll[i];
+
+            nearbyCharacters.resetQuick();
+            characters.collectNear(positionX[i], positionY[i], positionZ[i], queryDistance, nearbyCharacters);
+            characterLoop:
+            for (int n = 0; n < nearbyCharacters.size(); n++) {
+                int c = nearbyCharacters.get(n);
+                float radius = characters.getRadius(c);
+                float halfHeight = characters.getHalfHeight(c);
+                float dx = characters.getX(c) - positionX[i];
+                float dy = characters.getY(c) - positionY[i];
+                float dz = characters.getZ(c) - positionZ[i];
+                float maxDistance = reach + radius + halfHeight;
+                if (dx * dx + dy * dy + dz * dz > maxDistance * maxDistance) {
+                    continue;
+                }
+                float sphereOffset = Math.max(halfHeight - radius, 0);
+                for (int sphere = -1; sphere <= 1; sphere++) {
+                    float y = dy + sphere * sphereOffset;
+                    for (TrapHazard hazard : hazards) {
+                        if (sweeps(hazard, dx, y, dz, cosYaw, sinYaw, cosPitch, sinPitch, cosRoll, sinRoll,
+                                minAngle, maxAngle, radius)) {
+                            hit(hazard, i, characters.getCharacter(c), dx, y, dz, toAngle - fromAngle,
+                                    cosYaw, sinYaw);
+                            continue characterLoop;
+                        }
+                    }
+                    if (sphereOffset == 0) {
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean sweeps(TrapHazard hazard, float dx, float dy, float dz, float cosYaw, float sinYaw,
+                           float cosPitch, float sinPitch, float cosRoll, float sinRoll,
+                           float minAngle, float maxAngle, float inflation) {
+        if (motion == Motion.PENDULUM) {
+            // local = roll^-1 * pitch(a)^-1 * yaw^-1 * d
+            float ex = dx * cosYaw - dz * sinYaw;
+            float ez = dx * sinYaw + dz * cosYaw;
+            return hazard.sweeps(ex * cosRoll, -ex * sinRoll, 0,
+                    dy * sinRoll, dy * cosRoll, ez,
+                    ez * sinRoll, ez * cosRoll, -dy,
+                    minAngle, maxAngle, inflation);
+        } else {
+            // local = roll^-1 * pitch^-1 * yaw(a)^-1 * d
+            return hazard.sweeps(dy * cosPitch * sinRoll, dy * cosPitch * cosRoll, -dy * sinPitch,
+                    dx * cosRoll + dz * sinPitch * sinRoll, -dx * sinRoll + dz * sinPitch * cosRoll, dz * cosPitch,
+                    -dz * cosRoll + dx * sinPitch * sinRoll, dz * sinRoll + dx * sinPitch * cosRoll, dx * cosPitch,
+                    minAngle, maxAngle, inflation);
+        }
+    }
+
+    /**
+     * Hits the character, pushing it along the direction the trap moves in at the character, or away from the trap
+     * root if the trap did not move.
+     */
+    private void hit(TrapHazard hazard, int slot, EntityRef character, float dx, float dy, float dz, float deltaAngle,
+                     float cosYaw, float sinYaw) {
+        float axisX = 0;
+        float axisY = 1;
+        float axisZ = 0;
+        if (motion == Motion.PENDULUM) {
+            axisX = cosYaw;
+            axisY = 0;
+            axisZ = -sinYaw;
+        }
+        float sign = Math.signum(deltaAngle);
+        float directionX = sign * (axisY * dz - axisZ * dy);
+        float directionY = sign * (axisZ * dx - axisX * dz);
+        float directionZ = sign * (axisX * dy - axisY * dx);
+        float length = (float) Math.sqrt(directionX * directionX + directionY * directionY + directionZ * directionZ);
+        if (length < 0.0001f) {
+            directionX = dx;
+            directionY = dy;
+            directionZ = dz;
+            length = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+            if (length < 0.0001f) {
+                return;
+            }
+        }
+        hazard.hit(get(slot), character, directionX / length, directionY / length, directionZ / length);
+    }
+
+    /**
+     * Selects the cosine and sine used per tick, see {@link TrapMath} for the error of the fast ones.
+     *
+     * @param fastTrigonometry whether to use the {@link TrapMath} polynomials instead of {@link Math}
+     */
+    public void setFastTrigonometry(boolean fastTrigonometry) {
+        this.fastTrigonometry = fastTrigonometry;
+    }
+
+    private float cos(float x) {
+        return fastTrigonometry ? TrapMath.cos(x) : (float) Math.cos(x);
+    }
+
+    private float sin(float x) {
+        return fastTrigonometry ? TrapMath.sin(x) : (float) Math.sin(x);
+    }
+
+    /**
+     * Sets the rotation to the one of the given yaw, pitch and roll, like the Quat4f(yaw, pitch, roll) constructor
+     * does, but from the cosine and sine of the half angles.
+     */
+    private static void setRotation(Quat4f rotation, float cosHalfYaw, float sinHalfYaw, float cosHalfPitch,
+                                    float sinHalfPitch, float cosHalfRoll, float sinHalfRoll) {
+        rotation.set(
+                cosHalfRoll * sinHalfPitch * cosHalfYaw + sinHalfRoll * cosHalfPitch * sinHalfYaw,
+                cosHalfRoll * cosHalfPitch * sinHalfYaw - sinHalfRoll * sinHalfPitch * cosHalfYaw,
+                sinHalfRoll * cosHalfPitch * cosHalfYaw - cosHalfRoll * sinHalfPitch * sinHalfYaw,
+                cosHalfRoll * cosHalfPitch * cosHalfYaw + sinHalfRoll * sinHalfPitch * sinHalfYaw);
+    }
+
+    /**
+     * @return true while the batch saves the poses, so that the resulting change events can be told apart from
+     * changes made to the traps by others
+     */
+    public boolean isWritingBack() {
+        return writingBack;
+    }
+
+    @Override
+    protected void move(int from, int to) {
+        super.move(from, to);
+        period[to] = period[from];
+        omega[to] = omega[from];
+        amplitude[to] = amplitude[from];
+        phase[to] = phase[from];
+        direction[to] = direction[from];
+        cosHalfYaw[to] = cosHalfYaw[from];
+        sinHalfYaw[to] = sinHalfYaw[from];
+        cosHalfPitch[to] = cosHalfPitch[from];
+        sinHalfPitch[to] = sinHalfPitch[from];
+        cosHalfRoll[to] = cosHalfRoll[from];
+        sinHalfRoll[to] = sinHalfRoll[from];
+        positionX[to] = positionX[from];
+        positionY[to] = positionY[from];
+        positionZ[to] = positionZ[from];
+        clock[to] = clock[from];
+        cell[to] = cell[from];
+        relevant[to] = relevant[from];
+        argument[to] = argument[from];
+        previousArgument[to] = previousArgument[from];
+        angle[to] = angle[from];
+        previousAngle[to] = previousAngle[from];
+        writtenAngle[to] = writtenAngle[from];
+    }
+
+    @Override
+    protected void grow(int capacity) {
+        super.grow(capacity);
+        period = Arrays.copyOf(period, capacity);
+        omega = Arrays.copyOf(omega, capacity);
+        amplitude = Arrays.copyOf(amplitude, capacity);
+        phase = Arrays.copyOf(phase, capacity);
+        direction = Arrays.copyOf(direction, capacity);
+        cosHalfYaw = Arrays.copyOf(cosHalfYaw, capacity);
+        sinHalfYaw = Arrays.copyOf(sinHalfYaw, capacity);
+        cosHalfPitch = Arrays.copyOf(cosHalfPitch, capacity);
+        sinHalfPitch = Arrays.copyOf(sinHalfPitch, capacity);
+        cosHalfRoll = Arrays.copyOf(cosHalfRoll, capacity);
+        sinHalfRoll = Arrays.copyOf(sinHalfRoll, capacity);
+        positionX = Arrays.copyOf(positionX, capacity);
+        positionY = Arrays.copyOf(positionY, capacity);
+        positionZ = Arrays.copyOf(positionZ, capacity);
+        clock = Arrays.copyOf(clock, capacity);
+        cell = Arrays.copyOf(cell, capacity);
+        relevant = Arrays.copyOf(relevant, capacity);
+        argument = Arrays.copyOf(argument, capacity);
+        previousArgument = Arrays.copyOf(previousArgument, capacity);
+        angle = Arrays.copyOf(angle, capacity);
+        previousAngle = Arrays.copyOf(previousAngle, capacity);
+        writtenAngle = Arrays.copyOf(writtenAngle, capacity);
+    }
+}
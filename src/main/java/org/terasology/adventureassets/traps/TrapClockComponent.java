@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+import org.terasology.entitySystem.Component;
+import org.terasology.network.Replicate;
+
+/**
+ * This component turns an entity into a clock that a group of traps can share, e.g. all swinging blades of a room.
+ * Traps join the group by setting their clockGroup to its name, and are then animated from the clock time of the
+ * group instead of the game time, so that only their offsets differ.
+ * <p>
+ * The clock time is anchorClockTime + speed * (gameTime - anchorGameTime), or anchorClockTime while paused. Use the
+ * {@link TrapClockSystem} to pause, speed up or resynchronize a group, which re-anchors the clock with one write.
+ * <p>
+ * The entity also needs a Network component to replicate the clock to the clients, see the
+ * "AdventureAssets:trapClock" prefab.
+ */
+public class TrapClockComponent implements Component {
+    /**
+     * The name the traps of the group refer to
+     */
+    @Replicate
+    public String name = "";
+
+    /**
+     * How fast the clock runs, relative to the game time
+     */
+    @Replicate
+    public float speed = 1f;
+
+    /**
+     * To stop the clock, and with it all traps of the group
+     */
+    @Replicate
+    public boolean paused = false;
+
+    /**
+     * The game time (in seconds) at which the clock was last anchored
+     */
+    @Replicate
+    public float anchorGameTime = 0f;
+
+    /**
+     * The clock time (in seconds) at anchorGameTime
+     */
+    @Replicate
+    public float anchorClockTime = 0f;
+}
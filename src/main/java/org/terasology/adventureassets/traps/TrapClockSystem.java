@@ -0,0 +1,306 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.terasology.engine.Time;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeRemoveComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.logic.console.commandSystem.annotations.Command;
+import org.terasology.logic.console.commandSystem.annotations.CommandParam;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.registry.In;
+import org.terasology.registry.Share;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps track of the entities with a {@link TrapClockComponent}, and evaluates the time of every clock group once per
+ * game time for all trap systems.
+ * <p>
+ * Each group name gets a clock index, which the trap batches store per trap. Indices are never reused, so a group
+ * whose entity is gone, or which has no entity yet, simply runs on the game time.
+ * <p>
+ * The clock entity needs a Network component, otherwise its state never reaches the clients, which animate the
+ * members of the group themselves. The "AdventureAssets:trapClock" prefab has one, and structure templates create
+ * their groups from it with an AddTrapClock component. The trapClock* commands control a group by name.
+ * <p>
+ * The group names of a structure template are local to each spawned structure: they are scoped with the origin of
+ * the structure, see {@link #scopeGroup}, so that every spawned room gets clocks of its own.
+ */
+@RegisterSystem
+@Share(TrapClockSystem.class)
+public class TrapClockSystem extends BaseComponentSystem {
+    /**
+     * The clock index of traps which are in no group
+     */
+    public static final int NO_CLOCK = -1;
+
+    private static final char SCOPE_SEPARATOR = '@';
+
+    @In
+    private Time time;
+
+    private final TObjectIntMap<String> indicesByName = new TObjectIntHashMap<>(16, 0.5f, NO_CLOCK);
+    private EntityRef[] groups = new EntityRef[0];
+    private float[] speeds = new float[0];
+    private boolean[] paused = new boolean[0];
+    private float[] anchorGameTimes = new float[0];
+    private float[] anchorClockTimes = new float[0];
+    private float[] clockTimes = new float[0];
+    private float evaluatedGameTime = Float.NaN;
+
+    @ReceiveEvent(components = {TrapClockComponent.class})
+    public void onClockActivated(OnActivatedComponent event, EntityRef entity, TrapClockComponent clockComponent) {
+        updateClock(entity, clockComponent);
+    }
+
+    @ReceiveEvent(components = {TrapClockComponent.class})
+    public void onClockChanged(OnChangedComponent event, EntityRef entity, TrapClockComponent clockComponent) {
+        updateClock(entity, clockComponent);
+    }
+
+    @ReceiveEvent(components = {TrapClockComponent.class})
+    public void onClockDeactivated(BeforeDeactivateComponent event, EntityRef entity,
+                                   TrapClockComponent clockComponent) {
+        removeClock(entity, clockComponent);
+    }
+
+    @ReceiveEvent(components = {TrapClockComponent.class})
+    public void onClockRemoved(BeforeRemoveComponent event, EntityRef entity, TrapClockComponent clockComponent) {
+        removeClock(entity, clockComponent);
+    }
+
+    /**
+     * @param name the name of a clock group, or an empty string
+     * @return the clock index of the group, or {@link #NO_CLOCK} for an empty name
+     */
+    public int getClockIndex(String name) {
+        if (name == null || name.isEmpty()) {
+            return NO_CLOCK;
+        }
+        int index = indicesByName.get(name);
+        if (index == NO_CLOCK) {
+            index = indicesByName.size();
+            indicesByName.put(name, index);
+            groups = Arrays.copyOf(groups, index + 1);
+            speeds = Arrays.copyOf(speeds, index + 1);
+            paused = Arrays.copyOf(paused, index + 1);
+            anchorGameTimes = Arrays.copyOf(anchorGameTimes, index + 1);
+            anchorClockTimes = Arrays.copyOf(anchorClockTimes, index + 1);
+            clockTimes = Arrays.copyOf(clockTimes, index + 1);
+            resetClock(index);
+            evaluatedGameTime = Float.NaN;
+        }
+        return index;
+    }
+
+    /**
+     * Scopes a group name of a structure template to one spawned structure, e.g. "bladeRoom" becomes
+     * "bladeRoom@12,8,-40" for the structure spawned at (12, 8, -40).
+     *
+     * @param name the group name used within the template, or an empty string
+     * @param origin the world position of the origin of the spawned structure
+     * @return the world wide group name, or an empty string for an empty name
+     */
+    public static String scopeGroup(String name, Vector3i origin) {
+        if (name == null || name.isEmpty()) {
+            return "";
+        }
+        return getTemplateGroup(name) + SCOPE_SEPARATOR + origin.x + "," + origin.y + "," + origin.z;
+    }
+
+    /**
+     * @param name a group name, possibly scoped by {@link #scopeGroup}
+     * @return the group name without its scope, as used within a structure template
+     */
+    public static String getTemplateGroup(String name) {
+        int separator = name.lastIndexOf(SCOPE_SEPARATOR);
+        return separator == -1 ? name : name.substring(0, separator);
+    }
+
+    /**
+     * @param name the name of a clock group
+     * @return the entity of the group, or {@link EntityRef#NULL} if it has none
+     */
+    public EntityRef getGroup(String name) {
+        int index = indicesByName.get(name);
+        return index == NO_CLOCK ? EntityRef.NULL : groups[index];
+    }
+
+    /**
+     * Evaluates the time of every clock group, unless that was already done for the given game time.
+     *
+     * @param gameTime the current game time (in seconds)
+     * @return the clock times (in seconds), indexed by clock index
+     */
+    public float[] getClockTimes(float gameTime) {
+        if (gameTime != evaluatedGameTime) {
+            for (int i = 0; i < clockTimes.length; i++) {
+                clockTimes[i] = clockTime(i, gameTime);
+            }
+            evaluatedGameTime = gameTime;
+        }
+        return clockTimes;
+    }
+
+    /**
+     * Stops or restarts all traps of the group where they are.
+     *
+     * @param group the entity with the {@link TrapClockComponent}
+     * @param pause whether the clock should be paused
+     */
+    public void setPaused(EntityRef group, boolean pause) {
+        TrapClockComponent clockComponent = reanchor(group);
+        if (clockComponent != null) {
+            clockComponent.paused = pause;
+            group.saveComponent(clockComponent);
+        }
+    }
+
+    /**
+     * Changes how fast all traps of the group move, without making them jump.
+     *
+     * @param group the entity with the {@link TrapClockComponent}
+     * @param speed the new speed, relative to the game time
+     */
+    public void setSpeed(EntityRef group, float speed) {
+        TrapClockComponent clockComponent = reanchor(group);
+        if (clockComponent != null) {
+            clockComponent.speed = speed;
+            group.saveComponent(clockComponent);
+        }
+    }
+
+    /**
+     * Resets the clock of the group to 0, so all its traps continue from their offsets.
+     *
+     * @param group the entity with the {@link TrapClockComponent}
+     */
+    public void resynchronize(EntityRef group) {
+        TrapClockComponent clockComponent = group.getComponent(TrapClockComponent.class);
+        if (clockComponent != null) {
+            clockComponent.anchorGameTime = time.getGameTime();
+            clockComponent.anchorClockTime = 0;
+            group.saveComponent(clockComponent);
+        }
+    }
+
+    @Command(shortDescription = "Lists the clock groups, with the state of their clocks", runOnServer = true)
+    public String trapClockList() {
+        Map<String, Integer> sortedIndices = new TreeMap<>();
+        indicesByName.forEachEntry((name, index) -> {
+            sortedIndices.put(name, index);
+            return true;
+        });
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : sortedIndices.entrySet()) {
+            int index = entry.getValue();
+            if (groups[index].exists()) {
+                sb.append(sb.length() == 0 ? "" : "\n").append(entry.getKey()).append(": speed ")
+                        .append(speeds[index]).append(paused[index] ? ", paused" : "");
+            }
+        }
+        return sb.length() == 0 ? "No clock groups" : sb.toString();
+    }
+
+    @Command(shortDescription = "Pauses or restarts all traps of a clock group", runOnServer = true)
+    public String trapClockPause(@CommandParam("group") String name, @CommandParam("paused") boolean pause) {
+        EntityRef group = getGroup(name);
+        if (!group.exists()) {
+            return "No clock group " + name;
+        }
+        setPaused(group, pause);
+        return (pause ? "Paused" : "Restarted") + " clock group " + name;
+    }
+
+    @Command(shortDescription = "Changes how fast all traps of a clock group move", runOnServer = true)
+    public String trapClockSpeed(@CommandParam("group") String name, @CommandParam("speed") float speed) {
+        EntityRef group = getGroup(name);
+        if (!group.exists()) {
+            return "No clock group " + name;
+        }
+        setSpeed(group, speed);
+        return "Clock group " + name + " runs at speed " + speed;
+    }
+
+    @Command(shortDescription = "Restarts all traps of a clock group from their offsets", runOnServer = true)
+    public String trapClockResync(@CommandParam("group") String name) {
+        EntityRef group = getGroup(name);
+        if (!group.exists()) {
+            return "No clock group " + name;
+        }
+        resynchronize(group);
+        return "Resynchronized clock group " + name;
+    }
+
+    private TrapClockComponent reanchor(EntityRef group) {
+        TrapClockComponent clockComponent = group.getComponent(TrapClockComponent.class);
+        if (clockComponent != null) {
+            float gameTime = time.getGameTime();
+            if (!clockComponent.paused) {
+                clockComponent.anchorClockTime += clockComponent.speed * (gameTime - clockComponent.anchorGameTime);
+            }
+            clockComponent.anchorGameTime = gameTime;
+        }
+        return clockComponent;
+    }
+
+    private void updateClock(EntityRef entity, TrapClockComponent clockComponent) {
+        int index = getClockIndex(clockComponent.name);
+        if (index == NO_CLOCK) {
+            return;
+        }
+        groups[index] = entity;
+        speeds[index] = clockComponent.speed;
+        paused[index] = clockComponent.paused;
+        anchorGameTimes[index] = clockComponent.anchorGameTime;
+        anchorClockTimes[index] = clockComponent.anchorClockTime;
+        evaluatedGameTime = Float.NaN;
+    }
+
+    private void removeClock(EntityRef entity, TrapClockComponent clockComponent) {
+        int index = indicesByName.get(clockComponent.name);
+        if (index != NO_CLOCK && entity.equals(groups[index])) {
+            resetClock(index);
+        }
+    }
+
+    private void resetClock(int index) {
+        groups[index] = EntityRef.NULL;
+        speeds[index] = 1;
+        paused[index] = false;
+        anchorGameTimes[index] = 0;
+        anchorClockTimes[index] = 0;
+        evaluatedGameTime = Float.NaN;
+    }
+
+    private float clockTime(int index, float gameTime) {
+        if (paused[index]) {
+            return anchorClockTimes[index];
+        }
+        return anchorClockTimes[index] + speeds[index] * (gameTime - anchorGameTimes[index]);
+    }
+}
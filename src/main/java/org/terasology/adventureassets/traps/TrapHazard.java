@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+import org.terasology.adventureassets.damageplayer.DamagePlayerComponent;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.logic.characters.AliveCharacterComponent;
+import org.terasology.logic.characters.CharacterImpulseEvent;
+import org.terasology.logic.health.DoDamageEvent;
+import org.terasology.logic.health.EngineDamageTypes;
+import org.terasology.math.TeraMath;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.physics.components.shapes.BoxShapeComponent;
+
+/**
+ * A box attached to a trap, e.g. the blade of a swinging blade, which hits characters analytically instead of through
+ * a kinematic rigid body.
+ * <p>
+ * Within one tick a point of a character moves on a circular arc relative to the box, around the axis the trap is
+ * animated about. {@link #sweeps} intersects that arc exactly with the faces of the box, inflated by the radius of the
+ * character, so fast traps can not skip a character between two ticks.
+ */
+public class TrapHazard {
+    private static final double TWO_PI = 2 * Math.PI;
+    private static final double EPSILON = 0.00001;
+
+    private final float centerX;
+    private final float centerY;
+    private final float centerZ;
+    private final float halfX;
+    private final float halfY;
+    private final float halfZ;
+    private final float reach;
+    private final float damage;
+    private final float recoil;
+
+    private final double[] base = new double[3];
+    private final double[] cos = new double[3];
+    private final double[] sin = new double[3];
+    private final double[] extent = new double[3];
+
+    /**
+     * @param center the center of the box, relative to the trap root
+     * @param halfExtents half the size of the box along each axis
+     * @param damage the damage dealt on a hit
+     * @param recoil the strength of the impulse a hit character receives
+     */
+    public TrapHazard(Vector3f center, Vector3f halfExtents, float damage, float recoil) {
+        this.centerX = center.x;
+        this.centerY = center.y;
+        this.centerZ = center.z;
+        this.halfX = halfExtents.x;
+        this.halfY = halfExtents.y;
+        this.halfZ = halfExtents.z;
+        this.reach = center.length() + halfExtents.length();
+        this.damage = damage;
+        this.recoil = recoil;
+    }
+
+    /**
+     * Creates the hazard matching a child entity prefab of a trap. The box is taken from its {@link BoxShapeComponent},
+     * and the damage and recoil from its {@link DamagePlayerComponent}. Children which deal no damage, like the
+     * surfboard of a wipe out, only push the characters away.
+     *
+     * @param prefab the prefab of the child entity
+     * @param offset the position the child entity is attached at, relative to the trap root
+     * @return the hazard
+     */
+    public static TrapHazard fromPrefab(Prefab prefab, Vector3f offset) {
+        BoxShapeComponent boxShapeComponent = prefab.getComponent(BoxShapeComponent.class);
+        Vector3f halfExtents = new Vector3f(boxShapeComponent.extents).scale(0.5f);
+        DamagePlayerComponent damagePlayerComponent = prefab.getComponent(DamagePlayerComponent.class);
+        if (damagePlayerComponent == null) {
+            return new TrapHazard(offset, halfExtents, 0, new DamagePlayerComponent().recoil);
+        }
+        return new TrapHazard(offset, halfExtents, damagePlayerComponent.damage, damagePlayerComponent.recoil);
+    }
+
+    /**
+     * @return the largest distance of any point of the box from the trap root
+     */
+    public float getReach() {
+        return reach;
+    }
+
+    /**
+     * Checks whether the point p(a) = base + cosine * cos(a) + sine * sin(a), given in the frame of the trap root
+     * with the animated angle removed, is inside the box for any angle a between fromAngle and toAngle.
+     *
+     * @param fromAngle the smaller animated angle (in radians)
+     * @param toAngle the larger animated angle (in radians)
+     * @param inflation the distance (in blocks) the box is inflated by
+     * @return whether the point hits the box
+     */
+    public boolean sweeps(float baseX, float baseY, float baseZ, float cosineX, float cosineY, float cosineZ,
+                          float sineX, float sineY, float sineZ, float fromAngle, float toAngle, float inflation) {
+        base[0] = baseX - centerX;
+        base[1] = baseY - centerY;
+        base[2] = baseZ - centerZ;
+        cos[0] = cosineX;
+        cos[1] = cosineY;
+        cos[2] = cosineZ;
+        sin[0] = sineX;
+        sin[1] = sineY;
+        sin[2] = sineZ;
+        extent[0] = halfX + inflation;
+        extent[1] = halfY + inflation;
+        extent[2] = halfZ + inflation;
+        if (isInside(fromAngle, -1) || isInside(toAngle, -1)) {
+            return true;
+        }
+        for (int axis = 0; axis < 3; axis++) {
+            double radius = Math.sqrt(cos[axis] * cos[axis] + sin[axis] * sin[axis]);
+            if (radius < EPSILON) {
+                continue;
+            }
+            // base + radius * cos(a - delta) = +-extent has the solutions a = delta +- acos(...)
+            double delta = Math.atan2(sin[axis], cos[axis]);
+            for (int side = -1; side <= 1; side += 2) {
+                double cosine = (side * extent[axis] - base[axis]) / radius;
+                if (cosine < -1 || cosine > 1) {
+                    continue;
+                }
+                double beta = Math.acos(cosine);
+                if (crossesFace(delta + beta, fromAngle, toAngle, axis)
+                        || crossesFace(delta - beta, fromAngle, toAngle, axis)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean crossesFace(double angle, double fromAngle, double toAngle, int axis) {
+        double offset = (angle - fromAngle) % TWO_PI;
+        if (offset < 0) {
+            offset += TWO_PI;
+        }
+        return fromAngle + offset <= toAngle && isInside(fromAngle + offset, axis);
+    }
+
+    private boolean isInside(double angle, int skippedAxis) {
+        double cosAngle = Math.cos(angle);
+        double sinAngle = Math.sin(angle);
+        for (int axis = 0; axis < 3; axis++) {
+            if (axis == skippedAxis) {
+                continue;
+            }
+            double coordinate = base[axis] + cos[axis] * cosAngle + sin[axis] * sinAngle;
+            if (Math.abs(coordinate) > extent[axis] + EPSILON) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pushes the character in the given direction and deals the damage, like the {@link
+     * org.terasology.adventureassets.damageplayer.DamagePlayerSystem} does on a collision.
+     *
+     * @param trap the trap root entity
+     * @param character the character that was hit
+     * @param directionX the x component of the normalized push direction
+     * @param directionY the y component of the normalized push direction
+     * @param directionZ the z component of the normalized push direction
+     */
+    public void hit(EntityRef trap, EntityRef character, float directionX, float directionY, float directionZ) {
+        if (!character.hasComponent(AliveCharacterComponent.class)) {
+            return;
+        }
+        character.send(new CharacterImpulseEvent(new Vector3f(directionX, directionY, directionZ).mul(recoil)));
+        if (damage > 0) {
+            character.send(new DoDamageEvent(TeraMath.floorToInt(damage), EngineDamageTypes.PHYSICAL.get(), trap));
+        }
+    }
+}
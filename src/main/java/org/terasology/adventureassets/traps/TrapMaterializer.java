@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+import gnu.trove.set.TLongSet;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.math.geom.Vector3f;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Keeps track of which traps have their child entities, e.g. the rod and blade of a swinging blade. Traps far away
+ * from all characters stay in a compact state with just their parameters, and only get their children, with their
+ * rigid bodies, once a character comes near. The children are released again once all characters left.
+ * <p>
+ * Like the relevance of animated traps, this works on whole {@link CharacterGrid} cells.
+ */
+public class TrapMaterializer extends TrapRegistry {
+    private long[] cell = new long[0];
+    private boolean[] materialized = new boolean[0];
+
+    public TrapMaterializer() {
+        grow(16);
+    }
+
+    /**
+     * Adds the trap if needed, without children.
+     *
+     * @param entity the trap entity
+     * @param position the world position of the trap
+     */
+    public void set(EntityRef entity, Vector3f position) {
+        if (add(entity)) {
+            materialized[slotOf(entity)] = false;
+        }
+        cell[slotOf(entity)] = CharacterGrid.cellKey(position.x, position.y, position.z);
+    }
+
+    /**
+     * @param entity the trap entity
+     * @return true if the trap is registered and has its children
+     */
+    public boolean isMaterialized(EntityRef entity) {
+        int slot = slotOf(entity);
+        return slot != -1 && materialized[slot];
+    }
+
+    /**
+     * Materializes the traps without children in the given cells, and releases the children of the traps outside of
+     * the retained cells. The retained cells should include the materialized ones, so traps near their border don't
+     * get materialized and released over and over again.
+     *
+     * @param materializedCells the keys of the cells in which traps get their children
+     * @param retainedCells the keys of the cells in which traps keep their children
+     * @param materialize creates the children of a trap
+     * @param release destroys the children of a trap
+     */
+    public void update(TLongSet materializedCells, TLongSet retainedCells, Consumer<EntityRef> materialize,
+                       Consumer<EntityRef> release) {
+        for (int i = 0; i < size(); i++) {
+            if (!materialized[i] && materializedCells.contains(cell[i])) {
+                materialized[i] = true;
+                materialize.accept(get(i));
+            } else if (materialized[i] && !retainedCells.contains(cell[i])) {
+                materialized[i] = false;
+                release.accept(get(i));
+            }
+        }
+    }
+
+    /**
+     * Materializes all traps without children, for when the children are not released at all.
+     *
+     * @param materialize creates the children of a trap
+     */
+    public void materializeAll(Consumer<EntityRef> materialize) {
+        for (int i = 0; i < size(); i++) {
+            if (!materialized[i]) {
+                materialized[i] = true;
+                materialize.accept(get(i));
+            }
+        }
+    }
+
+    @Override
+    protected void move(int from, int to) {
+        super.move(from, to);
+        cell[to] = cell[from];
+        materialized[to] = materialized[from];
+    }
+
+    @Override
+    protected void grow(int capacity) {
+        super.grow(capacity);
+        cell = Arrays.copyOf(cell, capacity);
+        materialized = Arrays.copyOf(materialized, capacity);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+import org.terasology.math.geom.Quat4f;
+
+/**
+ * A fast cosine and sine for the trap animation, which only needs visual precision.
+ * <p>
+ * The argument is reduced to [0, pi/2] and the cosine evaluated with its Taylor polynomial of degree 8. The period is
+ * subtracted in two parts, the first of which multiplies exactly, so the reduction adds almost no error. The absolute
+ * error of the cosine is at most 2.5e-5 for |x| &lt; 1000. The sine shifts its argument by pi/2 first, which keeps its
+ * error at most 3e-5 for |x| &lt; 100. The trap batch only passes phases within one period plus an offset, and half
+ * angles. For a pendulum of amplitude A this bounds the angular error by 2.5e-5 * A radians. The quaternion of a pose
+ * is composed from the sine and cosine of half angles, which adds at most about 6e-5 radians more. Both are below the
+ * 1e-4 radians that the trap batch treats as no change.
+ * <p>
+ * It also compares rotations with a tolerance, for the trap systems which only save a rotation that changed.
+ */
+public final class TrapMath {
+    private static final float PI = (float) Math.PI;
+    private static final float HALF_PI = (float) (Math.PI / 2);
+    // 2 pi = TWO_PI_HIGH + TWO_PI_LOW, where TWO_PI_HIGH has few enough bits that k * TWO_PI_HIGH is exact
+    private static final float TWO_PI_HIGH = 6.28125f;
+    private static final float TWO_PI_LOW = (float) (2 * Math.PI - 6.28125);
+    private static final float INVERSE_TWO_PI = (float) (1 / (2 * Math.PI));
+
+    private static final float C2 = -1f / 2;
+    private static final float C4 = 1f / 24;
+    private static final float C6 = -1f / 720;
+    private static final float C8 = 1f / 40320;
+
+    private static final float SAME_ROTATION_EPSILON = 1e-6f;
+
+    private TrapMath() {
+    }
+
+    /**
+     * @param x an angle (in radians)
+     * @return the cosine of x, with an absolute error of at most 2.5e-5 for |x| &lt; 1000
+     */
+    public static float cos(float x) {
+        float periods = Math.round(x * INVERSE_TWO_PI);
+        x = (x - periods * TWO_PI_HIGH) - periods * TWO_PI_LOW;
+        if (x < 0) {
+            x = -x;
+        }
+        float sign = 1;
+        if (x > HALF_PI) {
+            x = PI - x;
+            sign = -1;
+        }
+        float x2 = x * x;
+        return sign * (1 + x2 * (C2 + x2 * (C4 + x2 * (C6 + x2 * C8))));
+    }
+
+    /**
+     * @param x an angle (in radians)
+     * @return the sine of x, with an absolute error of at most 3e-5 for |x| &lt; 100
+     */
+    public static float sin(float x) {
+        return cos(x - HALF_PI);
+    }
+
+    /**
+     * Compares two unit quaternions as rotations. q and -q are the same rotation, and a rotation which went through a
+     * transformation or the network differs from the original in the last bits, so they are not compared exactly.
+     *
+     * @param a a unit quaternion
+     * @param b another unit quaternion
+     * @return whether |a &middot; b| &gt; 1 - 1e-6, i.e. whether the rotations differ by less than about 0.16 degrees
+     */
+    public static boolean isSameRotation(Quat4f a, Quat4f b) {
+        float dot = a.getX() * b.getX() + a.getY() * b.getY() + a.getZ() * b.getZ() + a.getW() * b.getW();
+        return Math.abs(dot) > 1 - SAME_ROTATION_EPSILON;
+    }
+}
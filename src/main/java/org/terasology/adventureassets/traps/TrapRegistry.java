@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import org.terasology.entitySystem.entity.EntityRef;
+
+import java.util.Arrays;
+
+/**
+ * A set of trap entities which is maintained incrementally by the trap systems, from the OnActivatedComponent and
+ * BeforeDeactivateComponent/BeforeRemoveComponent events of the trap component.
+ * <p>
+ * The traps are kept in densely packed slots, so the update loops only iterate over the traps instead of querying the
+ * entity manager every frame. Removing a trap moves the trap in the last slot into the freed one.
+ */
+public class TrapRegistry {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NO_SLOT = -1;
+
+    private final TLongIntMap slotsById = new TLongIntHashMap(INITIAL_CAPACITY, 0.5f, 0L, NO_SLOT);
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private EntityRef[] entities = new EntityRef[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Adds the trap, unless it is registered already.
+     *
+     * @param entity the trap entity
+     * @return true if the trap was added
+     */
+    public boolean add(EntityRef entity) {
+        long id = entity.getId();
+        if (slotsById.containsKey(id)) {
+            return false;
+        }
+        if (size == ids.length) {
+            grow(size * 2);
+        }
+        int slot = size++;
+        ids[slot] = id;
+        entities[slot] = entity;
+        slotsById.put(id, slot);
+        return true;
+    }
+
+    /**
+     * Removes the trap, if it is registered.
+     *
+     * @param entity the trap entity
+     * @return true if the trap was removed
+     */
+    public boolean remove(EntityRef entity) {
+        int slot = slotsById.remove(entity.getId());
+        if (slot == NO_SLOT) {
+            return false;
+        }
+        int last = --size;
+        if (slot != last) {
+            move(last, slot);
+        }
+        entities[last] = null;
+        return true;
+    }
+
+    public boolean contains(EntityRef entity) {
+        return slotsById.containsKey(entity.getId());
+    }
+
+    /**
+     * @param entity the trap entity
+     * @return the slot of the trap, or -1 if it is not registered
+     */
+    public int slotOf(EntityRef entity) {
+        return slotsById.get(entity.getId());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public EntityRef get(int slot) {
+        return entities[slot];
+    }
+
+    public long getId(int slot) {
+        return ids[slot];
+    }
+
+    public void clear() {
+        Arrays.fill(entities, 0, size, null);
+        slotsById.clear();
+        size = 0;
+    }
+
+    /**
+     * Moves the data of a trap from one slot to another. Subclasses keeping data per slot need to move it as well.
+     */
+    protected void move(int from, int to) {
+        ids[to] = ids[from];
+        entities[to] = entities[from];
+        slotsById.put(ids[to], to);
+    }
+
+    /**
+     * Grows the storage to the given capacity. Subclasses keeping data per slot need to grow it as well.
+     */
+    protected void grow(int capacity) {
+        ids = Arrays.copyOf(ids, capacity);
+        entities = Arrays.copyOf(entities, capacity);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+import org.terasology.entitySystem.Component;
+
+/**
+ * This component holds the module wide settings for the traps. It is read from the "AdventureAssets:trapSettings"
+ * prefab, so the values can be tuned per server by overriding that prefab.
+ */
+public class TrapSettingsComponent implements Component {
+    /**
+     * If true, the swinging blade pose is evaluated locally from the replicated {@link
+     * org.terasology.adventureassets.traps.swingingblade.SwingingBladeComponent} parameters and the synchronized game
+     * time, instead of replicating a new rotation of every blade on every tick.
+     */
+    public boolean analyticBladePose = true;
+
+    /**
+     * Swinging blades and wipe outs with no character within this distance (in blocks) are not animated on the server.
+     * The check works on whole chunks, so traps up to a chunk further away may still be animated. 0 disables it.
+     */
+    public float animationRelevanceRadius = 64f;
+
+    /**
+     * Swinging blades and wipe outs get their rods, blades, surfboards and meshes only while a character is within this
+     * distance (in blocks), and release them again once all characters left. Like the animation relevance, this works
+     * on whole chunks. 0 gives all traps their children for as long as they are active.
+     */
+    public float materializationRadius = 64f;
+
+    /**
+     * The rate (in Hz) at which the server moves the swinging blades and wipe outs, and with them their colliders.
+     * Clients still evaluate the pose of their meshes on every frame. 0 moves them on every server frame.
+     */
+    public float serverTrapTickRate = 20f;
+
+    /**
+     * If true, the rods, blades and surfboards of newly activated swinging blades and wipe outs get no rigid body.
+     * Instead the server tests the characters against the arc they swept through since the previous tick, see {@link
+     * TrapHazard}. The children of traps which are already active keep their rigid bodies.
+     */
+    public boolean analyticHazards = false;
+
+    /**
+     * If true, the swinging blades and wipe outs are animated with the polynomial cosine and sine of {@link
+     * TrapMath}, which are faster than the ones of {@link Math} but have an absolute error of up to 3e-5.
+     */
+    public boolean fastTrigonometry = false;
+
+    /**
+     * The maximum number of live projectiles spawned by fireball launchers, counting each fireball of a volley. Shots
+     * which would exceed it are deferred, and the launchers nearest to a player get to fire first. Client simulated
+     * launchers spawn no projectiles and are not limited. 0 disables the limit.
+     */
+    public int maxLauncherProjectiles = 0;
+
+    /**
+     * The time (in seconds) a shot of a fireball launcher may be deferred because of the projectile budget before it
+     * is dropped. Shots are dropped no later than the next shot of the same launcher is due.
+     */
+    public float maxShotDelay = 0.5f;
+
+    /**
+     * The time (in milliseconds) the server spends per frame on configuring the traps spawned by structure templates.
+     * Traps waiting for their configuration stay inert. 0 configures them all right when their structure is spawned.
+     */
+    public float spawnBudget = 2f;
+
+    /**
+     * The maximum number of decimals of the float values in the structure templates exported with the traps. Fewer
+     * decimals make the templates smaller, but round the rotations and trap settings. A negative value writes floats
+     * with their full precision.
+     */
+    public int templateFloatPrecision = 6;
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+import org.terasology.assets.management.AssetManager;
+import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.registry.In;
+import org.terasology.registry.Share;
+
+import java.util.Optional;
+
+/**
+ * Provides the {@link TrapSettingsComponent} stored in the "AdventureAssets:trapSettings" prefab to the trap systems.
+ */
+@RegisterSystem
+@Share(TrapSettingsSystem.class)
+public class TrapSettingsSystem extends BaseComponentSystem {
+
+    @In
+    private AssetManager assetManager;
+
+    private TrapSettingsComponent settings;
+
+    /**
+     * The settings are resolved lazily, since other systems may ask for them in their own initialise() before this
+     * system got initialised.
+     *
+     * @return the trap settings, or the defaults if the settings prefab is missing
+     */
+    public TrapSettingsComponent getSettings() {
+        if (settings == null) {
+            Optional<Prefab> settingsPrefab = assetManager.getAsset("AdventureAssets:trapSettings", Prefab.class);
+            if (settingsPrefab.isPresent() && settingsPrefab.get().hasComponent(TrapSettingsComponent.class)) {
+                settings = settingsPrefab.get().getComponent(TrapSettingsComponent.class);
+            } else {
+                settings = new TrapSettingsComponent();
+            }
+        }
+        return settings;
+    }
+}
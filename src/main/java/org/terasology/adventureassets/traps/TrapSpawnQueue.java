@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.event.EventPriority;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
+import org.terasology.registry.In;
+import org.terasology.registry.Share;
+import org.terasology.world.block.BlockComponent;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+/**
+ * Spreads the configuration of the traps spawned by structure templates over several frames, so that spawning a
+ * structure with many traps does not stall the server. Each frame the queued tasks are run until the time budget of
+ * {@link TrapSettingsComponent#spawnBudget} is used up, at least one task per frame.
+ * <p>
+ * A trap with queued tasks is pending: the trap systems neither animate it nor let it fire until its last task has
+ * run. They are told about both changes by a {@link TrapSpawnStateChangedEvent}.
+ * <p>
+ * The queued tasks of a trap are run right away when the trap is about to be stored, i.e. before the world is saved
+ * and when the chunk of the trap is unloaded, so that no trap is stored with its unconfigured settings.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+@Share(TrapSpawnQueue.class)
+public class TrapSpawnQueue extends BaseComponentSystem implements UpdateSubscriberSystem {
+
+    @In
+    private TrapSettingsSystem trapSettingsSystem;
+
+    private final Deque<Task> tasks = new ArrayDeque<>();
+    private final TLongIntMap pendingTasksById = new TLongIntHashMap();
+
+    /**
+     * Queues a task configuring the trap. The task is run right away if the spawn budget is disabled and no other
+     * tasks are waiting.
+     *
+     * @param trap the trap entity to configure
+     * @param task the configuration of the trap, run with the trap entity if it still exists by then
+     */
+    public void enqueue(EntityRef trap, Consumer<EntityRef> task) {
+        if (tasks.isEmpty() && trapSettingsSystem.getSettings().spawnBudget <= 0) {
+            task.accept(trap);
+            return;
+        }
+        tasks.add(new Task(trap, task));
+        if (pendingTasksById.adjustOrPutValue(trap.getId(), 1, 1) == 1) {
+            trap.send(new TrapSpawnStateChangedEvent());
+        }
+    }
+
+    /**
+     * @param trap a trap entity
+     * @return true if the trap still waits for some of its configuration tasks
+     */
+    public boolean isPending(EntityRef trap) {
+        return !pendingTasksById.isEmpty() && pendingTasksById.containsKey(trap.getId());
+    }
+
+    /**
+     * @return the number of queued tasks
+     */
+    public int size() {
+        return tasks.size();
+    }
+
+    @Override
+    public void update(float delta) {
+        if (tasks.isEmpty()) {
+            return;
+        }
+        float budget = trapSettingsSystem.getSettings().spawnBudget;
+        if (budget <= 0) {
+            runAll();
+            return;
+        }
+        long deadline = System.nanoTime() + (long) (budget * 1000000);
+        do {
+            run(tasks.poll());
+        } while (!tasks.isEmpty() && System.nanoTime() < deadline);
+    }
+
+    /**
+     * Configures a pending trap before it is stored, e.g. because its chunk is unloaded. This runs ahead of the trap
+     * systems, which drop the trap and its children once it is deactivated.
+     *
+     * @param event
+     * @param trap
+     */
+    @ReceiveEvent(priority = EventPriority.PRIORITY_CRITICAL, components = {BlockComponent.class})
+    public void onTrapDeactivated(BeforeDeactivateComponent event, EntityRef trap) {
+        if (!isPending(trap)) {
+            return;
+        }
+        Iterator<Task> iterator = tasks.iterator();
+        while (iterator.hasNext()) {
+            Task task = iterator.next();
+            if (task.trap.equals(trap)) {
+                iterator.remove();
+                run(task);
+            }
+        }
+    }
+
+    /**
+     * Configures all traps before the world is saved, so that no trap is stored with its unconfigured settings.
+     */
+    @Override
+    public void preSave() {
+        runAll();
+    }
+
+    @Override
+    public void shutdown() {
+        tasks.clear();
+        pendingTasksById.clear();
+    }
+
+    private void runAll() {
+        while (!tasks.isEmpty()) {
+            run(tasks.poll());
+        }
+    }
+
+    private void run(Task task) {
+        EntityRef trap = task.trap;
+        if (!trap.exists()) {
+            pendingTasksById.remove(trap.getId());
+            return;
+        }
+        task.configuration.accept(trap);
+        if (pendingTasksById.adjustOrPutValue(trap.getId(), -1, 0) <= 0) {
+            pendingTasksById.remove(trap.getId());
+            trap.send(new TrapSpawnStateChangedEvent());
+        }
+    }
+
+    private static final class Task {
+        private final EntityRef trap;
+        private final Consumer<EntityRef> configuration;
+
+        private Task(EntityRef trap, Consumer<EntityRef> configuration) {
+            this.trap = trap;
+            this.configuration = configuration;
+        }
+    }
+}
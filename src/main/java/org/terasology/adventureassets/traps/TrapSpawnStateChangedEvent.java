@@ -0,0 +1,25 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+import org.terasology.entitySystem.event.Event;
+
+/**
+ * Sent by the {@link TrapSpawnQueue} to a trap when it starts or stops waiting to be configured, so the trap systems
+ * can stop or resume animating it. Whether the trap is pending is told by {@link TrapSpawnQueue#isPending}.
+ */
+public class TrapSpawnStateChangedEvent implements Event {
+}
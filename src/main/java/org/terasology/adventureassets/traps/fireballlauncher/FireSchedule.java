@@ -0,0 +1,196 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps.fireballlauncher;
+
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import org.terasology.entitySystem.entity.EntityRef;
+
+import java.util.Arrays;
+
+/**
+ * The fireball launchers which are firing, in a binary min-heap keyed by the game time of their next shot.
+ * <p>
+ * Finding out that no launcher is due is O(1), and scheduling, rescheduling or removing a launcher is O(log n). The
+ * heap position of every launcher is tracked, so a changed launcher is moved in place rather than added twice.
+ */
+public class FireSchedule {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NOT_SCHEDULED = -1;
+
+    private final TLongIntMap positionsById = new TLongIntHashMap(INITIAL_CAPACITY, 0.5f, 0L, NOT_SCHEDULED);
+    private long[] ids = new long[INITIAL_CAPACITY];
+    private EntityRef[] launchers = new EntityRef[INITIAL_CAPACITY];
+    private float[] times = new float[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Schedules the next shot of the launcher, replacing any shot scheduled before.
+     *
+     * @param launcher the fireball launcher entity
+     * @param time the game time (in seconds) after which the launcher fires
+     */
+    public void schedule(EntityRef launcher, float time) {
+        int position = positionsById.get(launcher.getId());
+        if (position == NOT_SCHEDULED) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                launchers = Arrays.copyOf(launchers, size * 2);
+                times = Arrays.copyOf(times, size * 2);
+            }
+            position = size++;
+            set(position, launcher.getId(), launcher, time);
+            siftUp(position);
+        } else {
+            float previousTime = times[position];
+            times[position] = time;
+            if (time < previousTime) {
+                siftUp(position);
+            } else {
+                siftDown(position);
+            }
+        }
+    }
+
+    /**
+     * Removes the launcher from the schedule, if it is scheduled.
+     *
+     * @param launcher the fireball launcher entity
+     * @return true if the launcher was scheduled
+     */
+    public boolean remove(EntityRef launcher) {
+        int position = positionsById.remove(launcher.getId());
+        if (position == NOT_SCHEDULED) {
+            return false;
+        }
+        int last = --size;
+        if (position != last) {
+            float removedTime = times[position];
+            set(position, ids[last], launchers[last], times[last]);
+            if (times[position] < removedTime) {
+                siftUp(position);
+            } else {
+                siftDown(position);
+            }
+        }
+        launchers[last] = null;
+        return true;
+    }
+
+    public boolean contains(EntityRef launcher) {
+        return positionsById.containsKey(launcher.getId());
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the launcher which fires next
+     */
+    public EntityRef peek() {
+        return launchers[0];
+    }
+
+    /**
+     * @return the game time (in seconds) of the next shot, or positive infinity if nothing is scheduled
+     */
+    public float peekTime() {
+        return size == 0 ? Float.POSITIVE_INFINITY : times[0];
+    }
+
+    /**
+     * Removes and returns the launcher which fires next.
+     *
+     * @return the launcher
+     */
+    public EntityRef poll() {
+        EntityRef launcher = launchers[0];
+        remove(launcher);
+        return launcher;
+    }
+
+    public void clear() {
+        Arrays.fill(launchers, 0, size, null);
+        positionsById.clear();
+        size = 0;
+    }
+
+    private void siftUp(int position) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (times[parent] <= times[position]) {
+                return;
+            }
+            swap(position, parent);
+            position = parent;
+        }
+    }
+
+    private void siftDown(int position) {
+        while (true) {
+            int smallest = position;
+            int left = 2 * position + 1;
+            int right = left + 1;
+            if (left < size && times[left] < times[smallest]) {
+                smallest = left;
+            }
+            if (right < size && times[right] < times[smallest]) {
+                smallest = right;
+            }
+            if (smallest == position) {
+                return;
+            }
+            swap(position, smallest);
+            position = smallest;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long id = ids[a];
+        EntityRef launcher = launchers[a];
+        float time = times[a];
+        set(a, ids[b], launchers[b], times[b]);
+        set(b, id, launcher, time);
+    }
+
+    private void set(int position, long id, EntityRef launcher, float time) {
+        ids[position] = id;
+        launchers[position] = launcher;
+        times[position] = time;
+        positionsById.put(id, position);
+    }
+
+    /**
+     * The shots of a launcher are on a fixed grid of game times, timePeriod apart and shifted by offset. The server
+     * and the clients use this to agree on the shots of client simulated launchers without any network traffic.
+     *
+     * @param gameTime the current game time (in seconds)
+     * @param timePeriod the time between two shots of the launcher
+     * @param offset the time offset of the launcher
+     * @return the first shot time after the game time
+     */
+    public static float nextShotTime(float gameTime, float timePeriod, float offset) {
+        if (timePeriod <= 0) {
+            return gameTime;
+        }
+        return (float) (Math.floor((gameTime - offset) / timePeriod) + 1) * timePeriod + offset;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps.fireballlauncher;
+
+import org.terasology.entitySystem.event.Event;
+import org.terasology.network.BroadcastEvent;
+
+/**
+ * Sent by the server on a client simulated fireball launcher when one of its fireballs hit a character, so the
+ * clients can remove that fireball. This is the only network traffic a shot of such a launcher causes.
+ */
+@BroadcastEvent
+public class FireballHitEvent implements Event {
+    private float launchTime;
+    private int index;
+
+    public FireballHitEvent() {
+    }
+
+    public FireballHitEvent(float launchTime, int index) {
+        this.launchTime = launchTime;
+        this.index = index;
+    }
+
+    /**
+     * @return the game time (in seconds) of the shot the fireball belongs to
+     */
+    public float getLaunchTime() {
+        return launchTime;
+    }
+
+    /**
+     * @return the index of the fireball in its volley, 0 for single fireballs
+     */
+    public int getIndex() {
+        return index;
+    }
+}
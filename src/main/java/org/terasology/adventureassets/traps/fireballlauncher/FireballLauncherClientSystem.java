@@ -0,0 +1,132 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps.fireballlauncher;
+
+import org.terasology.engine.Time;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeRemoveComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
+import org.terasology.logic.location.LocationComponent;
+import org.terasology.registry.In;
+import org.terasology.world.OnChangedBlock;
+import org.terasology.world.WorldProvider;
+import org.terasology.world.block.BlockComponent;
+
+/**
+ * Shows the shots of client simulated fireball launchers, see {@link FireballLauncherComponent#clientSimulated}.
+ * The shots are on the same fixed grid of game times the server uses, see {@link FireSchedule#nextShotTime}, and
+ * their fireballs are computed from the replicated launcher settings, so no entity is replicated per shot. The server
+ * only reports the hits, with a {@link FireballHitEvent}.
+ */
+@RegisterSystem(RegisterMode.CLIENT)
+public class FireballLauncherClientSystem extends BaseComponentSystem implements UpdateSubscriberSystem {
+
+    @In
+    private Time time;
+    @In
+    private WorldProvider worldProvider;
+    @In
+    private FireballVolleyClientSystem fireballVolleyClientSystem;
+
+    private FireSchedule fireSchedule = new FireSchedule();
+    private LineOfFireCache lineOfFireCache;
+
+    @Override
+    public void initialise() {
+        lineOfFireCache = new LineOfFireCache(worldProvider);
+    }
+
+    @ReceiveEvent(components = {FireballLauncherComponent.class, BlockComponent.class})
+    public void onFireballLauncherActivated(OnActivatedComponent event, EntityRef entity,
+                                            FireballLauncherComponent fireballLauncherComponent) {
+        lineOfFireCache.invalidate(entity);
+        schedule(entity, fireballLauncherComponent);
+    }
+
+    @ReceiveEvent(components = {FireballLauncherComponent.class, BlockComponent.class})
+    public void onFireballLauncherChanged(OnChangedComponent event, EntityRef entity,
+                                          FireballLauncherComponent fireballLauncherComponent) {
+        lineOfFireCache.invalidate(entity);
+        schedule(entity, fireballLauncherComponent);
+    }
+
+    @ReceiveEvent(components = {FireballLauncherComponent.class, BlockComponent.class})
+    public void onFireballLauncherDeactivated(BeforeDeactivateComponent event, EntityRef entity) {
+        release(entity);
+    }
+
+    @ReceiveEvent(components = {FireballLauncherComponent.class, BlockComponent.class})
+    public void onFireballLauncherRemoved(BeforeRemoveComponent event, EntityRef entity) {
+        release(entity);
+    }
+
+    @ReceiveEvent(components = {BlockComponent.class})
+    public void onBlockChanged(OnChangedBlock event, EntityRef entity) {
+        lineOfFireCache.onBlockChanged(event.getBlockPosition());
+    }
+
+    /**
+     * Removes the fireball the server reported as hit.
+     *
+     * @param event
+     * @param entity
+     */
+    @ReceiveEvent(components = {FireballLauncherComponent.class})
+    public void onFireballHit(FireballHitEvent event, EntityRef entity) {
+        fireballVolleyClientSystem.hit(entity, event.getLaunchTime(), event.getIndex());
+    }
+
+    private void schedule(EntityRef entity, FireballLauncherComponent fireballLauncherComponent) {
+        if (fireballLauncherComponent.isFiring && fireballLauncherComponent.clientSimulated
+                && !fireballLauncherComponent.isTracking) {
+            fireSchedule.schedule(entity, FireSchedule.nextShotTime(time.getGameTime(),
+                    fireballLauncherComponent.timePeriod, fireballLauncherComponent.offset));
+        } else {
+            fireSchedule.remove(entity);
+            fireballVolleyClientSystem.releaseShots(entity);
+        }
+    }
+
+    private void release(EntityRef entity) {
+        fireSchedule.remove(entity);
+        lineOfFireCache.invalidate(entity);
+        fireballVolleyClientSystem.releaseShots(entity);
+    }
+
+    @Override
+    public void update(float delta) {
+        float gameTime = time.getGameTime();
+        while (fireSchedule.peekTime() < gameTime) {
+            float launchTime = fireSchedule.peekTime();
+            EntityRef fireballLauncher = fireSchedule.poll();
+            FireballLauncherComponent fireballLauncherComponent = fireballLauncher.getComponent(FireballLauncherComponent.class);
+            LocationComponent locationComponent = fireballLauncher.getComponent(LocationComponent.class);
+            if (fireballLauncherComponent == null || locationComponent == null) {
+                continue;
+            }
+            fireballVolleyClientSystem.show(fireballLauncher, VolleyTrajectories.ofLauncher(fireballLauncher,
+                    locationComponent.getWorldPosition(), fireballLauncherComponent, launchTime, lineOfFireCache));
+            schedule(fireballLauncher, fireballLauncherComponent);
+        }
+    }
+}
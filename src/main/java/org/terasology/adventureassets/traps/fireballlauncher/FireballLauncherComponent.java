@@ -46,12 +46,6 @@ public class FireballLauncherComponent implements Component {
     @Replicate
     public float offset = 0f;
 
-    /**
-     * Last shot time
-     */
-    @Replicate
-    public float lastShotTime = 0f;
-
     /**
      * Direction to fire
      */
@@ -69,4 +63,52 @@ public class FireballLauncherComponent implements Component {
      */
     @Replicate
     public int damageAmount = 20;
+
+    /**
+     * Aims every shot at the nearest player within the tracking cone and the maximum distance, instead of firing
+     * in the fixed direction, which is the axis of the cone then. Tracking launchers do not fire when no player is
+     * in the cone, and are never client simulated
+     */
+    @Replicate
+    public boolean isTracking = false;
+
+    /**
+     * Angle (in degrees) between the direction and the surface of the tracking cone
+     */
+    @Replicate
+    public float trackingAngle = 30f;
+
+    /**
+     * Distance from the firing line (in blocks) within which a character has to be for the launcher to fire
+     * Skipped shots keep the timing, so a launcher which wakes up fires in sync. 0 to always fire
+     */
+    @Replicate
+    public float activationDistance = 0f;
+
+    /**
+     * Pattern of the volley fired on every shot, {@link VolleyPattern#NONE} to fire single fireballs
+     */
+    @Replicate
+    public VolleyPattern volleyPattern = VolleyPattern.NONE;
+
+    /**
+     * Number of fireballs in a volley, at most {@link FireballVolleyComponent#MAX_SIZE}
+     */
+    @Replicate
+    public int volleySize = 5;
+
+    /**
+     * Spacing of the fireballs in a volley, in radians for spreads and rings and in blocks for lines
+     */
+    @Replicate
+    public float volleySpacing = 0.5f;
+
+    /**
+     * Whether the clients simulate the fireballs themselves from these settings and the game time, instead of the
+     * server spawning and replicating an entity per fireball. The server then only detects the hits.
+     * Such launchers always fire, ignoring the activation distance, so all clients agree on their shots. Ignored for
+     * tracking launchers, whose targets are only known to the server
+     */
+    @Replicate
+    public boolean clientSimulated = false;
 }
@@ -15,41 +15,204 @@
  */
 package org.terasology.adventureassets.traps.fireballlauncher;
 
+import gnu.trove.map.TLongFloatMap;
+import gnu.trove.map.hash.TLongFloatHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.terasology.assets.management.AssetManager;
+import org.terasology.adventureassets.AssetHandle;
+import org.terasology.adventureassets.AssetHandleRegistry;
+import org.terasology.adventureassets.traps.CharacterGrid;
+import org.terasology.adventureassets.traps.CharacterGridSystem;
+import org.terasology.adventureassets.traps.TrapSettingsComponent;
+import org.terasology.adventureassets.traps.TrapSettingsSystem;
+import org.terasology.adventureassets.traps.TrapSpawnQueue;
+import org.terasology.adventureassets.traps.TrapSpawnStateChangedEvent;
 import org.terasology.engine.Time;
 import org.terasology.entitySystem.entity.EntityBuilder;
 import org.terasology.entitySystem.entity.EntityManager;
 import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeRemoveComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
 import org.terasology.entitySystem.event.ReceiveEvent;
 import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.entitySystem.prefab.PrefabData;
 import org.terasology.entitySystem.systems.BaseComponentSystem;
 import org.terasology.entitySystem.systems.RegisterMode;
 import org.terasology.entitySystem.systems.RegisterSystem;
 import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
+import org.terasology.logic.console.commandSystem.annotations.Command;
 import org.terasology.logic.health.HealthComponent;
 import org.terasology.logic.location.LocationComponent;
 import org.terasology.math.geom.Vector3f;
 import org.terasology.projectile.FireProjectileEvent;
 import org.terasology.projectile.ProjectileActionComponent;
 import org.terasology.registry.In;
+import org.terasology.world.OnChangedBlock;
+import org.terasology.world.WorldProvider;
 import org.terasology.world.block.BlockComponent;
 import org.terasology.world.block.items.BlockItemComponent;
 import org.terasology.world.block.items.OnBlockItemPlaced;
 import org.terasology.world.block.items.OnBlockToItem;
 
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
 @RegisterSystem(RegisterMode.AUTHORITY)
 public class FireballLauncherServerSystem extends BaseComponentSystem implements UpdateSubscriberSystem {
 
     private static final Logger logger = LoggerFactory.getLogger(FireballLauncherServerSystem.class);
 
+    /**
+     * Players further away (in blocks) from a launcher do not raise the priority of its shots under the budget
+     */
+    private static final float PRIORITY_RANGE = 64f;
+
     @In
     private EntityManager entityManager;
     @In
     private Time time;
     @In
-    private AssetManager assetManager;
+    private CharacterGridSystem characterGridSystem;
+    @In
+    private WorldProvider worldProvider;
+    @In
+    private FireballVolleyServerSystem fireballVolleyServerSystem;
+    @In
+    private TrapSettingsSystem trapSettingsSystem;
+    @In
+    private TrapSpawnQueue trapSpawnQueue;
+    @In
+    private AssetHandleRegistry assetHandleRegistry;
+
+    private AssetHandle<Prefab, PrefabData> fireballPrefab;
+    private AssetHandle<Prefab, PrefabData> fireballVolleyPrefab;
+    private FireSchedule fireSchedule = new FireSchedule();
+    /**
+     * The game time of the last shot of each launcher, by entity id. This runtime state is kept on the server only,
+     * so the replicated {@link FireballLauncherComponent} only changes when its settings are edited.
+     */
+    private TLongFloatMap lastShotTimes = new TLongFloatHashMap();
+    /**
+     * The game time at which the deferred shot of each launcher was due, by entity id
+     */
+    private TLongFloatMap deferredShotTimes = new TLongFloatHashMap();
+    private List<DueShot> dueShots = new ArrayList<>();
+    private ProjectileBudget projectileBudget = new ProjectileBudget();
+    private LineOfFireCache lineOfFireCache;
+
+    @Override
+    public void initialise() {
+        lineOfFireCache = new LineOfFireCache(worldProvider);
+        fireballPrefab = assetHandleRegistry.register("Projectile:fireball", Prefab.class);
+        fireballVolleyPrefab = assetHandleRegistry.register("AdventureAssets:fireballVolley", Prefab.class);
+    }
+
+    @ReceiveEvent(components = {FireballLauncherComponent.class, BlockComponent.class})
+    public void onFireballLauncherActivated(OnActivatedComponent event, EntityRef entity,
+                                            FireballLauncherComponent fireballLauncherComponent) {
+        lineOfFireCache.invalidate(entity);
+        schedule(entity, fireballLauncherComponent);
+    }
+
+    /**
+     * Reschedules the launcher whenever its settings change, e.g. by the settings screen, when it is placed from an
+     * item or configured by a structure template.
+     *
+     * @param event
+     * @param entity
+     * @param fireballLauncherComponent
+     */
+    @ReceiveEvent(components = {FireballLauncherComponent.class, BlockComponent.class})
+    public void onFireballLauncherChanged(OnChangedComponent event, EntityRef entity,
+                                          FireballLauncherComponent fireballLauncherComponent) {
+        lineOfFireCache.invalidate(entity);
+        deferredShotTimes.remove(entity.getId());
+        schedule(entity, fireballLauncherComponent);
+    }
+
+    @ReceiveEvent(components = {FireballLauncherComponent.class, BlockComponent.class})
+    public void onFireballLauncherDeactivated(BeforeDeactivateComponent event, EntityRef entity) {
+        fireSchedule.remove(entity);
+        lastShotTimes.remove(entity.getId());
+        deferredShotTimes.remove(entity.getId());
+        lineOfFireCache.invalidate(entity);
+    }
+
+    @ReceiveEvent(components = {FireballLauncherComponent.class, BlockComponent.class})
+    public void onFireballLauncherRemoved(BeforeRemoveComponent event, EntityRef entity) {
+        fireSchedule.remove(entity);
+        lastShotTimes.remove(entity.getId());
+        deferredShotTimes.remove(entity.getId());
+        lineOfFireCache.invalidate(entity);
+    }
+
+    /**
+     * Releases the fireball from the projectile budget once it exploded, expired or got unloaded.
+     *
+     * @param event
+     * @param entity
+     */
+    @ReceiveEvent(components = {ProjectileActionComponent.class})
+    public void onFireballDeactivated(BeforeDeactivateComponent event, EntityRef entity) {
+        projectileBudget.release(entity);
+    }
+
+    @ReceiveEvent(components = {ProjectileActionComponent.class})
+    public void onFireballRemoved(BeforeRemoveComponent event, EntityRef entity) {
+        projectileBudget.release(entity);
+    }
+
+    @ReceiveEvent(components = {FireballVolleyComponent.class})
+    public void onVolleyDeactivated(BeforeDeactivateComponent event, EntityRef entity) {
+        projectileBudget.release(entity);
+    }
+
+    @ReceiveEvent(components = {FireballVolleyComponent.class})
+    public void onVolleyRemoved(BeforeRemoveComponent event, EntityRef entity) {
+        projectileBudget.release(entity);
+    }
+
+    /**
+     * Invalidates the cached firing lines running past the changed block.
+     *
+     * @param event
+     * @param entity
+     */
+    @ReceiveEvent(components = {BlockComponent.class})
+    public void onBlockChanged(OnChangedBlock event, EntityRef entity) {
+        lineOfFireCache.onBlockChanged(event.getBlockPosition());
+    }
+
+    /**
+     * Keeps the launcher from firing while the {@link TrapSpawnQueue} has yet to configure it, and schedules it once it
+     * is.
+     *
+     * @param event
+     * @param entity
+     * @param fireballLauncherComponent
+     */
+    @ReceiveEvent(components = {FireballLauncherComponent.class, BlockComponent.class})
+    public void onSpawnStateChanged(TrapSpawnStateChangedEvent event, EntityRef entity,
+                                    FireballLauncherComponent fireballLauncherComponent) {
+        schedule(entity, fireballLauncherComponent);
+    }
+
+    private void schedule(EntityRef entity, FireballLauncherComponent fireballLauncherComponent) {
+        if (trapSpawnQueue.isPending(entity)) {
+            fireSchedule.remove(entity);
+        } else if (fireballLauncherComponent.isFiring && fireballLauncherComponent.clientSimulated
+                && !fireballLauncherComponent.isTracking) {
+            fireSchedule.schedule(entity, FireSchedule.nextShotTime(time.getGameTime(),
+                    fireballLauncherComponent.timePeriod, fireballLauncherComponent.offset));
+        } else if (fireballLauncherComponent.isFiring) {
+            fireSchedule.schedule(entity, lastShotTimes.get(entity.getId()) + fireballLauncherComponent.timePeriod);
+        } else {
+            fireSchedule.remove(entity);
+        }
+    }
 
     /**
      * Save the Fireball Launcher settings by saving the {@link FireballLauncherComponent}
@@ -94,41 +257,308 @@ public class FireballLauncherServerSystem extends BaseComponentSystem implements
         fireballLauncherComponent.maxDistance = event.getMaxDistance();
         fireballLauncherComponent.offset = event.getOffset();
         fireballLauncherComponent.direction = event.getDirection();
+        fireballLauncherComponent.isTracking = event.isTracking();
+        fireballLauncherComponent.trackingAngle = event.getTrackingAngle();
 
         fireballLauncherRoot.saveComponent(fireballLauncherComponent);
     }
 
     /**
-     * Find all Fireball Launchers and trigger the launch of a Fireball if it is the right time
+     * Trigger the launch of a Fireball for every Fireball Launcher whose next shot is due. The launchers are taken from
+     * the {@link FireSchedule}, so a frame in which no launcher is due costs O(1). Each launcher fires at most once
+     * per frame. Launchers with no character near their firing line, or whose firing line is blocked right at the
+     * muzzle, skip the shot, but keep their timing. Launchers with a volley pattern fire a single volley entity
+     * instead of a fireball. The shots of client simulated launchers are only simulated for hits, on the fixed grid
+     * of shot times the clients use as well. Tracking launchers aim each shot at the nearest player in their cone.
+     * <p>
+     * Shots which would exceed the projectile budget are deferred to the next frame, and dropped once they are late
+     * by more than the maximum shot delay. When the budget is limited, the launchers nearest to a player fire first.
+     * Launchers which are asleep, and tracking launchers without a target, skip their shot before the budget is
+     * checked, so they are never deferred or dropped.
      *
      * @param delta The time (in seconds) since the last engine update.
      */
     @Override
     public void update(float delta) {
-        for (EntityRef fireballLauncher : entityManager.getEntitiesWith(FireballLauncherComponent.class, BlockComponent.class)) {
+        float gameTime = time.getGameTime();
+        while (fireSchedule.peekTime() < gameTime) {
+            float dueTime = fireSchedule.peekTime();
+            EntityRef fireballLauncher = fireSchedule.poll();
+            if (deferredShotTimes.containsKey(fireballLauncher.getId())) {
+                dueTime = deferredShotTimes.get(fireballLauncher.getId());
+            }
+            dueShots.add(new DueShot(fireballLauncher, dueTime));
+        }
+        TrapSettingsComponent settings = trapSettingsSystem.getSettings();
+        int available = projectileBudget.getAvailable(settings.maxLauncherProjectiles);
+        if (settings.maxLauncherProjectiles > 0 && dueShots.size() > 1) {
+            prioritize();
+        }
+        for (DueShot dueShot : dueShots) {
+            EntityRef fireballLauncher = dueShot.launcher;
             FireballLauncherComponent fireballLauncherComponent = fireballLauncher.getComponent(FireballLauncherComponent.class);
-            if (fireballLauncherComponent.isFiring && time.getGameTime() > fireballLauncherComponent.timePeriod + fireballLauncherComponent.lastShotTime) {
-                Prefab fireballPrefab = assetManager.getAsset("Projectile:fireball", Prefab.class).get();
-                EntityBuilder fireballEntityBuilder = entityManager.newBuilder(fireballPrefab);
-                EntityRef fireball = fireballEntityBuilder.build();
-
-                ProjectileActionComponent projectileActionComponent = fireball.getComponent(ProjectileActionComponent.class);
-                projectileActionComponent.maxDistance = fireballLauncherComponent.maxDistance;
-                fireball.saveComponent(projectileActionComponent);
-
-                HealthComponent healthComponent = fireball.getComponent(HealthComponent.class);
-                healthComponent.maxHealth = fireballLauncherComponent.damageAmount;
-                healthComponent.currentHealth = fireballLauncherComponent.damageAmount;
-                fireball.saveComponent(healthComponent);
-
-                Vector3f pos = fireballLauncher.getComponent(LocationComponent.class).getWorldPosition();
-                fireball.send(new FireProjectileEvent(pos, fireballLauncherComponent.direction));
-
-                fireballLauncherComponent.lastShotTime = (float) Math.floor(time.getGameTime() / fireballLauncherComponent.timePeriod)
-                        * fireballLauncherComponent.timePeriod + fireballLauncherComponent.offset;
-                fireballLauncher.saveComponent(fireballLauncherComponent);
+            if (fireballLauncherComponent == null || !fireballLauncherComponent.isFiring) {
+                deferredShotTimes.remove(fireballLauncher.getId());
+                continue;
             }
+            LocationComponent locationComponent = fireballLauncher.getComponent(LocationComponent.class);
+            Vector3f position = locationComponent.getWorldPosition();
+            if (fireballLauncherComponent.clientSimulated && !fireballLauncherComponent.isTracking) {
+                VolleyTrajectories trajectories = VolleyTrajectories.ofLauncher(fireballLauncher, position,
+                        fireballLauncherComponent, dueShot.time, lineOfFireCache);
+                fireballVolleyServerSystem.simulate(fireballLauncher, trajectories,
+                        fireballLauncherComponent.damageAmount);
+                projectileBudget.countFired();
+            } else {
+                Vector3f direction = null;
+                if (fireballLauncherComponent.isTracking) {
+                    direction = aim(position, fireballLauncherComponent);
+                } else if (isAwake(position, fireballLauncherComponent)) {
+                    direction = fireballLauncherComponent.direction;
+                }
+                // a launcher which would not fire anyway costs no budget, and is neither deferred nor dropped
+                if (direction != null) {
+                    if (VolleyTrajectories.getSize(fireballLauncherComponent) > available) {
+                        if (gameTime - dueShot.time
+                                < Math.min(settings.maxShotDelay, fireballLauncherComponent.timePeriod)) {
+                            if (!deferredShotTimes.containsKey(fireballLauncher.getId())) {
+                                deferredShotTimes.put(fireballLauncher.getId(), dueShot.time);
+                                projectileBudget.countDeferred();
+                            }
+                            fireSchedule.schedule(fireballLauncher, gameTime);
+                            continue;
+                        }
+                        projectileBudget.countDropped();
+                    } else {
+                        int spawned = fire(fireballLauncher, position, direction,
+                                fireballLauncherComponent.isTracking, fireballLauncherComponent);
+                        if (spawned > 0) {
+                            available -= spawned;
+                            projectileBudget.countFired();
+                        }
+                    }
+                }
+            }
+            deferredShotTimes.remove(fireballLauncher.getId());
+            recordShot(fireballLauncher, fireballLauncherComponent);
+            schedule(fireballLauncher, fireballLauncherComponent);
         }
+        dueShots.clear();
+    }
+
+    /**
+     * Sorts the due shots by the distance of their launchers to the nearest player, nearest first. Launchers with no
+     * player within {@link #PRIORITY_RANGE} come last.
+     */
+    private void prioritize() {
+        CharacterGrid grid = characterGridSystem.getGrid();
+        for (DueShot dueShot : dueShots) {
+            dueShot.priority = Float.POSITIVE_INFINITY;
+            LocationComponent locationComponent = dueShot.launcher.getComponent(LocationComponent.class);
+            if (locationComponent == null) {
+                continue;
+            }
+            Vector3f position = locationComponent.getWorldPosition();
+            // a cone with an angle of 180 degrees is the whole sphere
+            int player = grid.findNearestPlayer(position, Vector3f.north(), -1f, PRIORITY_RANGE);
+            if (player != -1) {
+                float dx = grid.getX(player) - position.x;
+                float dy = grid.getY(player) - position.y;
+                float dz = grid.getZ(player) - position.z;
+                dueShot.priority = dx * dx + dy * dy + dz * dz;
+            }
+        }
+        dueShots.sort(Comparator.comparingDouble(dueShot -> dueShot.priority));
+    }
+
+    /**
+     * Shows the projectile budget of the fireball launchers, and how many shots were fired, deferred and dropped.
+     *
+     * @return the budget and the counters
+     */
+    @Command(shortDescription = "Shows the projectile budget and shot counters of the fireball launchers",
+            runOnServer = true)
+    public String fireballLauncherBudget() {
+        int maxLauncherProjectiles = trapSettingsSystem.getSettings().maxLauncherProjectiles;
+        return String.format("Live projectiles: %d / %s, shots fired: %d, deferred: %d, dropped: %d",
+                projectileBudget.getLive(), maxLauncherProjectiles > 0 ? maxLauncherProjectiles : "unlimited",
+                projectileBudget.getShotsFired(), projectileBudget.getShotsDeferred(),
+                projectileBudget.getShotsDropped());
+    }
+
+    /**
+     * Resets the shot counters of the fireball launchers, so they can be read again for a new measurement.
+     *
+     * @return a confirmation
+     */
+    @Command(shortDescription = "Resets the shot counters of the fireball launchers", runOnServer = true)
+    public String fireballLauncherBudgetReset() {
+        projectileBudget.resetCounters();
+        return "Shot counters reset";
+    }
+
+    public ProjectileBudget getProjectileBudget() {
+        return projectileBudget;
     }
-}
 
+    /**
+     * @param position the position of the Fireball Launcher
+     * @param fireballLauncherComponent its settings
+     * @return whether a character is close enough to the firing line for the launcher to fire
+     */
+    private boolean isAwake(Vector3f position, FireballLauncherComponent fireballLauncherComponent) {
+        if (fireballLauncherComponent.activationDistance <= 0) {
+            return true;
+        }
+        return characterGridSystem.getGrid().isAnyWithin(position, fireballLauncherComponent.direction,
+                fireballLauncherComponent.maxDistance, fireballLauncherComponent.activationDistance);
+    }
+
+    /**
+     * Finds the nearest player in the tracking cone of the launcher, looking only at the {@link CharacterGrid} cells
+     * within its range.
+     *
+     * @param position the position of the Fireball Launcher
+     * @param fireballLauncherComponent its settings
+     * @return the normalized direction to the player, or null if there is no player in the cone
+     */
+    private Vector3f aim(Vector3f position, FireballLauncherComponent fireballLauncherComponent) {
+        CharacterGrid grid = characterGridSystem.getGrid();
+        float cosHalfAngle = (float) Math.cos(Math.toRadians(fireballLauncherComponent.trackingAngle));
+        int target = grid.findNearestPlayer(position, VolleyTrajectories.getDirection(fireballLauncherComponent),
+                cosHalfAngle, fireballLauncherComponent.maxDistance);
+        if (target == -1) {
+            return null;
+        }
+        Vector3f direction = new Vector3f(grid.getX(target) - position.x, grid.getY(target) - position.y,
+                grid.getZ(target) - position.z);
+        if (direction.lengthSquared() == 0) {
+            return null;
+        }
+        return direction.normalize();
+    }
+
+    /**
+     * Fires a volley, or a single Fireball if the line of fire is clear at the muzzle.
+     *
+     * @param fireballLauncher the Fireball Launcher entity
+     * @param position the position of the Fireball Launcher
+     * @param direction the direction to fire in
+     * @param tracking whether the direction is aimed at a target, so the cached firing line of the launcher does not
+     * apply
+     * @param fireballLauncherComponent its settings
+     * @return the number of projectiles spawned
+     */
+    private int fire(EntityRef fireballLauncher, Vector3f position, Vector3f direction, boolean tracking,
+                     FireballLauncherComponent fireballLauncherComponent) {
+        if (fireballLauncherComponent.volleyPattern != VolleyPattern.NONE) {
+            return fireVolley(fireballLauncher, position, direction, fireballLauncherComponent);
+        }
+        float maxDistance = fireballLauncherComponent.maxDistance;
+        float clearDistance = tracking ? lineOfFireCache.getClearDistance(position, direction, maxDistance)
+                : lineOfFireCache.getClearDistance(fireballLauncher, position, direction, maxDistance);
+        if (clearDistance >= LineOfFireCache.MUZZLE_CLEARANCE) {
+            int distance = Math.min(fireballLauncherComponent.maxDistance, (int) Math.ceil(clearDistance));
+            spawnFireball(position, direction, distance, fireballLauncherComponent);
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Launches a Fireball from the Fireball Launcher. The components of the fireball are set on the builder, so the
+     * fireball entity is created with its final state instead of being changed and replicated again right after it
+     * was created.
+     *
+     * @param position the position of the Fireball Launcher
+     * @param direction the direction to fire in
+     * @param distance the distance after which the fireball expires, clamped to the first solid block in its way
+     * @param fireballLauncherComponent its settings
+     */
+    private void spawnFireball(Vector3f position, Vector3f direction, int distance,
+                               FireballLauncherComponent fireballLauncherComponent) {
+        EntityBuilder fireballEntityBuilder = entityManager.newBuilder(fireballPrefab.get());
+
+        ProjectileActionComponent projectileActionComponent = fireballEntityBuilder.getComponent(ProjectileActionComponent.class);
+        projectileActionComponent.maxDistance = distance;
+        fireballEntityBuilder.saveComponent(projectileActionComponent);
+
+        HealthComponent healthComponent = fireballEntityBuilder.getComponent(HealthComponent.class);
+        healthComponent.maxHealth = fireballLauncherComponent.damageAmount;
+        healthComponent.currentHealth = fireballLauncherComponent.damageAmount;
+        fireballEntityBuilder.saveComponent(healthComponent);
+
+        EntityRef fireball = fireballEntityBuilder.build();
+        projectileBudget.add(fireball, 1);
+
+        fireball.send(new FireProjectileEvent(position, direction));
+    }
+
+    /**
+     * Fires a volley of fireballs as a single entity, see {@link FireballVolleyComponent}. Each fireball gets its own
+     * range, clamped to the first solid block on its line, so the clients and the volley simulation need not look at
+     * the blocks at all.
+     *
+     * @param fireballLauncher the Fireball Launcher entity
+     * @param position the position of the Fireball Launcher
+     * @param direction the direction to fire in
+     * @param fireballLauncherComponent its settings
+     * @return the number of fireballs in the volley
+     */
+    private int fireVolley(EntityRef fireballLauncher, Vector3f position, Vector3f direction,
+                            FireballLauncherComponent fireballLauncherComponent) {
+        EntityBuilder volleyEntityBuilder = entityManager.newBuilder(fireballVolleyPrefab.get());
+        volleyEntityBuilder.setPersistent(false);
+
+        FireballVolleyComponent fireballVolleyComponent = volleyEntityBuilder.getComponent(FireballVolleyComponent.class);
+        fireballVolleyComponent.origin.set(position);
+        fireballVolleyComponent.direction.set(direction);
+        if (fireballVolleyComponent.direction.lengthSquared() > 0) {
+            fireballVolleyComponent.direction.normalize();
+        }
+        fireballVolleyComponent.pattern = fireballLauncherComponent.volleyPattern;
+        fireballVolleyComponent.size = VolleyTrajectories.getSize(fireballLauncherComponent);
+        fireballVolleyComponent.spacing = fireballLauncherComponent.volleySpacing;
+        fireballVolleyComponent.damageAmount = fireballLauncherComponent.damageAmount;
+        fireballVolleyComponent.launchTime = time.getGameTime();
+        fireballVolleyComponent.ranges.clear();
+        VolleyTrajectories.computeRanges(fireballLauncher, position, fireballVolleyComponent.direction,
+                fireballLauncherComponent, fireballVolleyComponent.size, lineOfFireCache,
+                fireballVolleyComponent.ranges);
+        volleyEntityBuilder.saveComponent(fireballVolleyComponent);
+
+        LocationComponent locationComponent = volleyEntityBuilder.getComponent(LocationComponent.class);
+        locationComponent.setWorldPosition(position);
+        volleyEntityBuilder.saveComponent(locationComponent);
+
+        EntityRef volley = volleyEntityBuilder.build();
+        projectileBudget.add(volley, fireballVolleyComponent.size);
+        return fireballVolleyComponent.size;
+    }
+
+    /**
+     * Records the time of the shot locally, whether the launcher actually fired or not.
+     *
+     * @param fireballLauncher the Fireball Launcher entity
+     * @param fireballLauncherComponent its settings
+     */
+    private void recordShot(EntityRef fireballLauncher, FireballLauncherComponent fireballLauncherComponent) {
+        float lastShotTime = (float) Math.floor(time.getGameTime() / fireballLauncherComponent.timePeriod)
+                * fireballLauncherComponent.timePeriod + fireballLauncherComponent.offset;
+        lastShotTimes.put(fireballLauncher.getId(), lastShotTime);
+    }
+
+    /**
+     * A launcher whose shot is due in this frame, with the game time the shot was due at.
+     */
+    private static final class DueShot {
+        private final EntityRef launcher;
+        private final float time;
+        private float priority;
+
+        private DueShot(EntityRef launcher, float time) {
+            this.launcher = launcher;
+            this.time = time;
+        }
+    }
+}
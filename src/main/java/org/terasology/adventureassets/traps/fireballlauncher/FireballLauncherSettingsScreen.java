@@ -36,6 +36,8 @@ public class FireballLauncherSettingsScreen extends BaseInteractionScreen {
     private UIText offset;
     private UIText maxDistance;
     private UIText damageAmount;
+    private UICheckbox isTracking;
+    private UIText trackingAngle;
     private UIText x;
     private UIText y;
     private UIText z;
@@ -56,6 +58,8 @@ public class FireballLauncherSettingsScreen extends BaseInteractionScreen {
         offset = find("offset", UIText.class);
         maxDistance = find("maxDistance", UIText.class);
         damageAmount = find("damageAmount", UIText.class);
+        isTracking = find("isTracking", UICheckbox.class);
+        trackingAngle = find("trackingAngle", UIText.class);
         x = find("x", UIText.class);
         y = find("y", UIText.class);
         z = find("z", UIText.class);
@@ -80,6 +84,8 @@ public class FireballLauncherSettingsScreen extends BaseInteractionScreen {
         offset.setText("" + fireballLauncherComponent.offset);
         maxDistance.setText("" + fireballLauncherComponent.maxDistance);
         damageAmount.setText("" + fireballLauncherComponent.damageAmount);
+        isTracking.setChecked(fireballLauncherComponent.isTracking);
+        trackingAngle.setText("" + fireballLauncherComponent.trackingAngle);
         Vector3f direction = fireballLauncherComponent.direction;
 
         x.setText(String.format("%.2f", direction.getX()));
@@ -94,6 +100,8 @@ public class FireballLauncherSettingsScreen extends BaseInteractionScreen {
             fireballLauncherComponent.offset = Float.parseFloat(offset.getText());
             fireballLauncherComponent.maxDistance = Integer.parseInt(maxDistance.getText());
             fireballLauncherComponent.damageAmount = Integer.parseInt(damageAmount.getText());
+            fireballLauncherComponent.isTracking = isTracking.isChecked();
+            fireballLauncherComponent.trackingAngle = Float.parseFloat(trackingAngle.getText());
             double xValue = Double.parseDouble(x.getText());
             double yValue = Double.parseDouble(y.getText());
             double zValue = Double.parseDouble(z.getText());
@@ -102,7 +110,8 @@ public class FireballLauncherSettingsScreen extends BaseInteractionScreen {
             localPlayer.getCharacterEntity().send(new SetFireballLauncherEvent(fireballLauncherRoot,
                     fireballLauncherComponent.isFiring, fireballLauncherComponent.timePeriod,
                     fireballLauncherComponent.offset, fireballLauncherComponent.direction,
-                    fireballLauncherComponent.maxDistance, fireballLauncherComponent.damageAmount));
+                    fireballLauncherComponent.maxDistance, fireballLauncherComponent.damageAmount,
+                    fireballLauncherComponent.isTracking, fireballLauncherComponent.trackingAngle));
         } catch (NumberFormatException e) {
             e.printStackTrace();
         }
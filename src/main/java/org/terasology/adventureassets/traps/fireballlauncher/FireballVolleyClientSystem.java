@@ -0,0 +1,290 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps.fireballlauncher;
+
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import org.terasology.adventureassets.AssetHandle;
+import org.terasology.adventureassets.AssetHandleRegistry;
+import org.terasology.engine.Time;
+import org.terasology.entitySystem.entity.EntityBuilder;
+import org.terasology.entitySystem.entity.EntityManager;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeRemoveComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.entitySystem.prefab.PrefabData;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
+import org.terasology.logic.location.LocationComponent;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.registry.In;
+import org.terasology.registry.Share;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Shows the fireballs of the volleys fired by the fireball launchers. The volley entity is replicated once, and each
+ * client creates local effect entities for its fireballs and moves them along the paths derived from it, see
+ * {@link VolleyTrajectories}. The shots of client simulated launchers are shown the same way, see
+ * {@link FireballLauncherClientSystem}. Fireballs are removed once they are spent, or when the server reports they hit
+ * a character. A hit reported before the client showed the shot is kept for a while, and applied once the shot is
+ * shown.
+ */
+@RegisterSystem(RegisterMode.CLIENT)
+@Share(FireballVolleyClientSystem.class)
+public class FireballVolleyClientSystem extends BaseComponentSystem implements UpdateSubscriberSystem {
+
+    /**
+     * How long (in seconds) a hit is kept for a shot the client has not shown yet
+     */
+    private static final float PENDING_HIT_TIME = 2f;
+
+    @In
+    private EntityManager entityManager;
+    @In
+    private Time time;
+    @In
+    private AssetHandleRegistry assetHandleRegistry;
+
+    private TLongObjectMap<VolleyEffects> effectsById = new TLongObjectHashMap<>();
+    private List<VolleyEffects> simulatedShots = new ArrayList<>();
+    private List<PendingHit> pendingHits = new ArrayList<>();
+    private Vector3f position = new Vector3f();
+    private AssetHandle<Prefab, PrefabData> fireballEffectPrefab;
+
+    @Override
+    public void initialise() {
+        fireballEffectPrefab = assetHandleRegistry.register("AdventureAssets:volleyFireballEffect", Prefab.class);
+    }
+
+    @ReceiveEvent(components = {FireballVolleyComponent.class})
+    public void onVolleyActivated(OnActivatedComponent event, EntityRef entity,
+                                  FireballVolleyComponent fireballVolleyComponent) {
+        effectsById.put(entity.getId(), createEffects(EntityRef.NULL, new VolleyTrajectories(fireballVolleyComponent),
+                fireballVolleyComponent.hitMask));
+    }
+
+    /**
+     * Shows a shot of a client simulated launcher, which has no entity of its own. The fireballs the server already
+     * reported as hit are left out.
+     *
+     * @param launcher the fireball launcher entity
+     * @param trajectories the fireballs of the shot
+     */
+    void show(EntityRef launcher, VolleyTrajectories trajectories) {
+        int hitMask = 0;
+        Iterator<PendingHit> iterator = pendingHits.iterator();
+        while (iterator.hasNext()) {
+            PendingHit pendingHit = iterator.next();
+            if (pendingHit.launcher.equals(launcher) && pendingHit.launchTime == trajectories.getLaunchTime()) {
+                hitMask |= 1 << pendingHit.index;
+                iterator.remove();
+            }
+        }
+        simulatedShots.add(createEffects(launcher, trajectories, hitMask));
+    }
+
+    /**
+     * Removes a fireball of a shot of a client simulated launcher, which the server reported as hit. If the client
+     * has not shown the shot yet, the hit is kept for {@link #show(EntityRef, VolleyTrajectories)}.
+     *
+     * @param launcher the fireball launcher entity
+     * @param launchTime the game time of the shot
+     * @param index the index of the fireball in the shot
+     */
+    void hit(EntityRef launcher, float launchTime, int index) {
+        for (VolleyEffects effects : simulatedShots) {
+            if (effects.launcher.equals(launcher) && effects.trajectories.getLaunchTime() == launchTime) {
+                if (index < effects.fireballs.length) {
+                    effects.release(index);
+                }
+                return;
+            }
+        }
+        pendingHits.add(new PendingHit(launcher, launchTime, index, time.getGameTime() + PENDING_HIT_TIME));
+    }
+
+    /**
+     * Removes all the shots of a client simulated launcher, e.g. because it got removed.
+     *
+     * @param launcher the fireball launcher entity
+     */
+    void releaseShots(EntityRef launcher) {
+        Iterator<VolleyEffects> iterator = simulatedShots.iterator();
+        while (iterator.hasNext()) {
+            VolleyEffects effects = iterator.next();
+            if (effects.launcher.equals(launcher)) {
+                effects.releaseAll();
+                iterator.remove();
+            }
+        }
+        pendingHits.removeIf(pendingHit -> pendingHit.launcher.equals(launcher));
+    }
+
+    private VolleyEffects createEffects(EntityRef launcher, VolleyTrajectories trajectories, int hitMask) {
+        EntityRef[] fireballs = new EntityRef[trajectories.size()];
+        float elapsed = time.getGameTime() - trajectories.getLaunchTime();
+        for (int i = 0; i < fireballs.length; i++) {
+            fireballs[i] = EntityRef.NULL;
+            if ((hitMask & (1 << i)) == 0 && elapsed < trajectories.getLifeTime(i)) {
+                trajectories.getPosition(i, elapsed, position);
+                EntityBuilder entityBuilder = entityManager.newBuilder(fireballEffectPrefab.get());
+                entityBuilder.setPersistent(false);
+                entityBuilder.getComponent(LocationComponent.class).setWorldPosition(position);
+                fireballs[i] = entityBuilder.build();
+            }
+        }
+        return new VolleyEffects(launcher, trajectories, fireballs);
+    }
+
+    /**
+     * Removes the fireballs the server reported as hits.
+     *
+     * @param event
+     * @param entity
+     * @param fireballVolleyComponent
+     */
+    @ReceiveEvent(components = {FireballVolleyComponent.class})
+    public void onVolleyChanged(OnChangedComponent event, EntityRef entity,
+                                FireballVolleyComponent fireballVolleyComponent) {
+        VolleyEffects effects = effectsById.get(entity.getId());
+        if (effects != null) {
+            for (int i = 0; i < effects.fireballs.length; i++) {
+                if ((fireballVolleyComponent.hitMask & (1 << i)) != 0) {
+                    effects.release(i);
+                }
+            }
+        }
+    }
+
+    @ReceiveEvent(components = {FireballVolleyComponent.class})
+    public void onVolleyDeactivated(BeforeDeactivateComponent event, EntityRef entity) {
+        release(entity);
+    }
+
+    @ReceiveEvent(components = {FireballVolleyComponent.class})
+    public void onVolleyRemoved(BeforeRemoveComponent event, EntityRef entity) {
+        release(entity);
+    }
+
+    private void release(EntityRef entity) {
+        VolleyEffects effects = effectsById.remove(entity.getId());
+        if (effects != null) {
+            effects.releaseAll();
+        }
+    }
+
+    @Override
+    public void update(float delta) {
+        float gameTime = time.getGameTime();
+        for (VolleyEffects effects : effectsById.valueCollection()) {
+            effects.update(gameTime);
+        }
+        Iterator<VolleyEffects> iterator = simulatedShots.iterator();
+        while (iterator.hasNext()) {
+            if (!iterator.next().update(gameTime)) {
+                iterator.remove();
+            }
+        }
+        if (!pendingHits.isEmpty()) {
+            pendingHits.removeIf(pendingHit -> pendingHit.expiryTime < gameTime);
+        }
+    }
+
+    /**
+     * A hit the server reported for a shot of a client simulated launcher which the client has not shown yet.
+     */
+    private static final class PendingHit {
+        private final EntityRef launcher;
+        private final float launchTime;
+        private final int index;
+        private final float expiryTime;
+
+        private PendingHit(EntityRef launcher, float launchTime, int index, float expiryTime) {
+            this.launcher = launcher;
+            this.launchTime = launchTime;
+            this.index = index;
+            this.expiryTime = expiryTime;
+        }
+    }
+
+    /**
+     * The local effect entities of the fireballs of a volley or of a simulated shot, by index.
+     */
+    private final class VolleyEffects {
+        /**
+         * The launcher of a simulated shot, {@link EntityRef#NULL} for volley entities
+         */
+        private final EntityRef launcher;
+        private final VolleyTrajectories trajectories;
+        private final EntityRef[] fireballs;
+
+        private VolleyEffects(EntityRef launcher, VolleyTrajectories trajectories, EntityRef[] fireballs) {
+            this.launcher = launcher;
+            this.trajectories = trajectories;
+            this.fireballs = fireballs;
+        }
+
+        /**
+         * Moves the fireballs to their positions at the game time, and removes the spent ones.
+         *
+         * @return whether any fireball is left
+         */
+        private boolean update(float gameTime) {
+            float elapsed = gameTime - trajectories.getLaunchTime();
+            boolean alive = false;
+            for (int i = 0; i < fireballs.length; i++) {
+                EntityRef fireball = fireballs[i];
+                if (!fireball.exists()) {
+                    continue;
+                }
+                if (elapsed >= trajectories.getLifeTime(i)) {
+                    release(i);
+                    continue;
+                }
+                alive = true;
+                LocationComponent locationComponent = fireball.getComponent(LocationComponent.class);
+                if (locationComponent != null) {
+                    trajectories.getPosition(i, elapsed, position);
+                    locationComponent.setWorldPosition(position);
+                    fireball.saveComponent(locationComponent);
+                }
+            }
+            return alive;
+        }
+
+        private void release(int index) {
+            if (fireballs[index].exists()) {
+                fireballs[index].destroy();
+            }
+            fireballs[index] = EntityRef.NULL;
+        }
+
+        private void releaseAll() {
+            for (int i = 0; i < fireballs.length; i++) {
+                release(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps.fireballlauncher;
+
+import com.google.common.collect.Lists;
+import org.terasology.entitySystem.Component;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.network.Replicate;
+
+import java.util.List;
+
+/**
+ * This component holds the data for a volley of fireballs, which a single entity carries instead of one projectile
+ * entity per fireball. It is replicated once when the volley is fired; the clients derive the paths of the fireballs
+ * from it and the game time, see {@link VolleyPattern}.
+ */
+public class FireballVolleyComponent implements Component {
+    /**
+     * The maximum number of fireballs in a volley, limited by the bits of {@link #hitMask}
+     */
+    public static final int MAX_SIZE = 32;
+
+    /**
+     * The speed (in blocks per second) of the fireballs of volleys and of client simulated launchers
+     */
+    public static final float DEFAULT_SPEED = 10f;
+
+    /**
+     * Position of the launcher which fired the volley
+     */
+    @Replicate
+    public Vector3f origin = new Vector3f();
+
+    /**
+     * Normalized direction of the launcher
+     */
+    @Replicate
+    public Vector3f direction = Vector3f.north();
+
+    @Replicate
+    public VolleyPattern pattern = VolleyPattern.SPREAD;
+
+    /**
+     * Number of fireballs in the volley
+     */
+    @Replicate
+    public int size = 5;
+
+    /**
+     * Spacing of the fireballs, whose unit depends on the pattern
+     */
+    @Replicate
+    public float spacing = 0.5f;
+
+    /**
+     * Speed of the fireballs (in blocks per second)
+     */
+    @Replicate
+    public float speed = DEFAULT_SPEED;
+
+    /**
+     * Game time (in seconds) at which the volley was fired
+     */
+    @Replicate
+    public float launchTime = 0f;
+
+    /**
+     * Distance (in blocks) each fireball flies before it expires or hits a block
+     */
+    @Replicate
+    public List<Float> ranges = Lists.newArrayList();
+
+    /**
+     * Bit i is set once fireball i hit a character
+     */
+    @Replicate
+    public int hitMask = 0;
+
+    /**
+     * Damage each fireball deals to the character it hits
+     */
+    public int damageAmount = 20;
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps.fireballlauncher;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import org.terasology.adventureassets.traps.CharacterGrid;
+import org.terasology.adventureassets.traps.CharacterGridSystem;
+import org.terasology.engine.Time;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeRemoveComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
+import org.terasology.logic.health.DoDamageEvent;
+import org.terasology.logic.health.EngineDamageTypes;
+import org.terasology.registry.In;
+import org.terasology.registry.Share;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Simulates the fireballs of the volleys fired by the fireball launchers, see {@link FireballVolleyComponent}, and
+ * the shots of client simulated launchers, which have no entity at all.
+ * The fireballs move in straight lines at a constant speed, so their positions follow from the game time alone. Each
+ * update sweeps every live fireball along the segment it moved through since the previous update and hits the
+ * character it touches first along that segment. Only the characters in the {@link CharacterGrid} cells around the
+ * segment are tested. A volley entity is destroyed once all its fireballs are spent.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+@Share(FireballVolleyServerSystem.class)
+public class FireballVolleyServerSystem extends BaseComponentSystem implements UpdateSubscriberSystem {
+
+    /**
+     * The radius (in blocks) of a fireball
+     */
+    public static final float FIREBALL_RADIUS = 0.25f;
+
+    @In
+    private Time time;
+    @In
+    private CharacterGridSystem characterGridSystem;
+
+    private TLongObjectMap<Volley> volleysById = new TLongObjectHashMap<>();
+    private List<Volley> simulatedShots = new ArrayList<>();
+    private List<EntityRef> spentVolleys = new ArrayList<>();
+    private final TIntList nearbyCharacters = new TIntArrayList();
+
+    @ReceiveEvent(components = {FireballVolleyComponent.class})
+    public void onVolleyActivated(OnActivatedComponent event, EntityRef entity,
+                                  FireballVolleyComponent fireballVolleyComponent) {
+        volleysById.put(entity.getId(), new Volley(entity, new VolleyTrajectories(fireballVolleyComponent),
+                fireballVolleyComponent.damageAmount, fireballVolleyComponent.hitMask, false));
+    }
+
+    @ReceiveEvent(components = {FireballVolleyComponent.class})
+    public void onVolleyDeactivated(BeforeDeactivateComponent event, EntityRef entity) {
+        volleysById.remove(entity.getId());
+    }
+
+    @ReceiveEvent(components = {FireballVolleyComponent.class})
+    public void onVolleyRemoved(BeforeRemoveComponent event, EntityRef entity) {
+        volleysById.remove(entity.getId());
+    }
+
+    /**
+     * Simulates a shot of a client simulated launcher. The clients show the same shot from the launcher settings, and
+     * are only told about the hits, with a {@link FireballHitEvent}.
+     *
+     * @param launcher the fireball launcher entity
+     * @param trajectories the fireballs of the shot
+     * @param damageAmount the damage each fireball deals
+     */
+    void simulate(EntityRef launcher, VolleyTrajectories trajectories, int damageAmount) {
+        simulatedShots.add(new Volley(launcher, trajectories, damageAmount, 0, true));
+    }
+
+    @Override
+    public void update(float delta) {
+        float gameTime = time.getGameTime();
+        CharacterGrid characters = characterGridSystem.getGrid();
+        for (Volley volley : volleysById.valueCollection()) {
+            if (volley.advance(gameTime, characters, nearbyCharacters)) {
+                spentVolleys.add(volley.entity);
+            }
+        }
+        for (EntityRef volley : spentVolleys) {
+            volley.destroy();
+        }
+        spentVolleys.clear();
+        Iterator<Volley> iterator = simulatedShots.iterator();
+        while (iterator.hasNext()) {
+            Volley shot = iterator.next();
+            if (!shot.entity.exists() || shot.advance(gameTime, characters, nearbyCharacters)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * The server side state of a volley or of a simulated shot: its trajectories, and how far they have been swept
+     * for hits.
+     */
+    private static final class Volley {
+        /**
+         * The volley entity, or the launcher of a simulated shot
+         */
+        private final EntityRef entity;
+        private final VolleyTrajectories trajectories;
+        private final int damageAmount;
+        private final boolean simulated;
+        private float elapsed;
+        private int hitMask;
+
+        private Volley(EntityRef entity, VolleyTrajectories trajectories, int damageAmount, int hitMask,
+                       boolean simulated) {
+            this.entity = entity;
+            this.trajectories = trajectories;
+            this.damageAmount = damageAmount;
+            this.hitMask = hitMask;
+            this.simulated = simulated;
+        }
+
+        /**
+         * Moves the fireballs up to the game time and hits the characters in their way.
+         *
+         * @param nearbyCharacters a scratch list for the characters near a fireball
+         * @return whether all the fireballs are spent
+         */
+        private boolean advance(float gameTime, CharacterGrid characters, TIntList nearbyCharacters) {
+            float from = elapsed;
+            float to = Math.max(gameTime - trajectories.getLaunchTime(), from);
+            elapsed = to;
+            int previousHitMask = hitMask;
+            boolean spent = true;
+            for (int i = 0; i < trajectories.size(); i++) {
+                float lifeTime = trajectories.getLifeTime(i);
+                if ((hitMask & (1 << i)) != 0 || from >= lifeTime) {
+                    continue;
+                }
+                float end = Math.min(to, lifeTime);
+                if (!characters.isEmpty() && sweep(i, from, end, characters, nearbyCharacters)) {
+                    hitMask |= 1 << i;
+                    if (simulated) {
+                        entity.send(new FireballHitEvent(trajectories.getLaunchTime(), i));
+                    }
+                } else if (end < lifeTime) {
+                    spent = false;
+                }
+            }
+            if (hitMask != previousHitMask && !simulated) {
+                FireballVolleyComponent fireballVolleyComponent = entity.getComponent(FireballVolleyComponent.class);
+                if (fireballVolleyComponent != null) {
+                    fireballVolleyComponent.hitMask = hitMask;
+                    entity.saveComponent(fireballVolleyComponent);
+                }
+            }
+            return spent;
+        }
+
+        /**
+         * Tests the segment fireball i moved along against the characters near it, each approximated by three spheres
+         * stacked along its height, and damages the character the fireball touches first along the segment.
+         */
+        private boolean sweep(int i, float from, float to, CharacterGrid characters, TIntList nearbyCharacters) {
+            float startX = trajectories.getStartX(i) + trajectories.getVelocityX(i) * from;
+            float startY = trajectories.getStartY(i) + trajectories.getVelocityY(i) * from;
+            float startZ = trajectories.getStartZ(i) + trajectories.getVelocityZ(i) * from;
+            float dx = trajectories.getVelocityX(i) * (to - from);
+            float dy = trajectories.getVelocityY(i) * (to - from);
+            float dz = trajectories.getVelocityZ(i) * (to - from);
+            float lengthSquared = dx * dx + dy * dy + dz * dz;
+            // a cube around the middle of the segment, which holds the center of every character the fireball may touch
+            float halfSize = Math.max(Math.abs(dx), Math.max(Math.abs(dy), Math.abs(dz))) / 2;
+            nearbyCharacters.resetQuick();
+            characters.collectNear(startX + dx / 2, startY + dy / 2, startZ + dz / 2,
+                    halfSize + characters.getMaxExtent() + FIREBALL_RADIUS, nearbyCharacters);
+            int first = -1;
+            float firstT = Float.POSITIVE_INFINITY;
+            for (int n = 0; n < nearbyCharacters.size(); n++) {
+                int c = nearbyCharacters.get(n);
+                float radius = characters.getRadius(c) + FIREBALL_RADIUS;
+                float sphereOffset = Math.max(characters.getHalfHeight(c) - characters.getRadius(c), 0);
+                for (int sphere = -1; sphere <= 1; sphere++) {
+                    float px = characters.getX(c) - startX;
+                    float py = characters.getY(c) + sphere * sphereOffset - startY;
+                    float pz = characters.getZ(c) - startZ;
+                    float t = firstContact(px, py, pz, dx, dy, dz, lengthSquared, radius);
+                    if (t < firstT) {
+                        first = c;
+                        firstT = t;
+                    }
+                    if (sphereOffset == 0) {
+                        break;
+                    }
+                }
+            }
+            if (first == -1) {
+                return false;
+            }
+            hit(characters.getCharacter(first));
+            return true;
+        }
+
+        /**
+         * @return the parameter t in [0, 1] at which the segment t * d first touches the sphere of the given radius
+         * around p, or infinity if it does not touch it
+         */
+        private static float firstContact(float px, float py, float pz, float dx, float dy, float dz,
+                                          float lengthSquared, float radius) {
+            float startDistance = px * px + py * py + pz * pz - radius * radius;
+            if (startDistance <= 0) {
+                return 0;
+            }
+            float projection = px * dx + py * dy + pz * dz;
+            if (lengthSquared == 0 || projection <= 0) {
+                return Float.POSITIVE_INFINITY;
+            }
+            float discriminant = projection * projection - lengthSquared * startDistance;
+            if (discriminant < 0) {
+                return Float.POSITIVE_INFINITY;
+            }
+            float t = (projection - (float) Math.sqrt(discriminant)) / lengthSquared;
+            return t <= 1 ? t : Float.POSITIVE_INFINITY;
+        }
+
+        private void hit(EntityRef character) {
+            if (damageAmount > 0) {
+                character.send(new DoDamageEvent(damageAmount, EngineDamageTypes.PHYSICAL.get(), entity));
+            }
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps.fireballlauncher;
+
+import gnu.trove.map.TLongFloatMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongFloatHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import org.terasology.adventureassets.traps.CharacterGrid;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.world.WorldProvider;
+
+/**
+ * Caches, per fireball launcher, how far its firing line is clear before it enters the first solid block.
+ * <p>
+ * The distance is found by walking the voxels along the line, and kept until a block changes in one of the
+ * {@link CharacterGrid} cells the walk went through, or the launcher itself changes. Lines running through chunks
+ * which are not loaded are not cached, since their blocks are not known yet.
+ */
+public class LineOfFireCache {
+    /**
+     * Fireballs whose line is clear for less than this distance (in blocks) are not fired at all
+     */
+    public static final float MUZZLE_CLEARANCE = 1f;
+
+    private final WorldProvider worldProvider;
+    private final TLongFloatMap clearDistancesById = new TLongFloatHashMap();
+    private final TLongObjectMap<long[]> cellsById = new TLongObjectHashMap<>();
+    private final TLongObjectMap<TLongSet> idsByCell = new TLongObjectHashMap<>();
+    private final TLongSet visitedCells = new TLongHashSet();
+
+    public LineOfFireCache(WorldProvider worldProvider) {
+        this.worldProvider = worldProvider;
+    }
+
+    /**
+     * @param launcher the fireball launcher entity
+     * @param position the position the fireballs are launched from
+     * @param direction the direction the fireballs are launched in, which needs not be normalized
+     * @param maxDistance the distance (in blocks) after which the fireballs expire
+     * @return the distance (in blocks) the firing line is clear for, at most maxDistance
+     */
+    public float getClearDistance(EntityRef launcher, Vector3f position, Vector3f direction, float maxDistance) {
+        long id = launcher.getId();
+        if (clearDistancesById.containsKey(id)) {
+            return clearDistancesById.get(id);
+        }
+        visitedCells.clear();
+        float clearDistance = raycast(position, direction, maxDistance);
+        if (clearDistance >= 0) {
+            clearDistancesById.put(id, clearDistance);
+            long[] cells = visitedCells.toArray();
+            cellsById.put(id, cells);
+            for (long cell : cells) {
+                TLongSet ids = idsByCell.get(cell);
+                if (ids == null) {
+                    ids = new TLongHashSet();
+                    idsByCell.put(cell, ids);
+                }
+                ids.add(id);
+            }
+            return clearDistance;
+        }
+        return maxDistance;
+    }
+
+    /**
+     * Finds how far a line is clear without caching it, e.g. for the fireballs of a volley, which each fly on their
+     * own line.
+     *
+     * @param position the start of the line
+     * @param direction the direction of the line, which needs not be normalized
+     * @param maxDistance the length (in blocks) of the line
+     * @return the distance (in blocks) the line is clear for, at most maxDistance
+     */
+    public float getClearDistance(Vector3f position, Vector3f direction, float maxDistance) {
+        float clearDistance = raycast(position, direction, maxDistance);
+        visitedCells.clear();
+        return clearDistance >= 0 ? clearDistance : maxDistance;
+    }
+
+    /**
+     * Forgets the cached distance of the launcher, e.g. because its settings changed or it got removed.
+     *
+     * @param launcher the fireball launcher entity
+     */
+    public void invalidate(EntityRef launcher) {
+        invalidate(launcher.getId());
+    }
+
+    /**
+     * Forgets the cached distances of all launchers whose firing line runs through the cell of the changed block.
+     *
+     * @param blockPosition the position of the changed block
+     */
+    public void onBlockChanged(Vector3i blockPosition) {
+        TLongSet ids = idsByCell.get(cellOf(blockPosition.x, blockPosition.y, blockPosition.z));
+        if (ids != null) {
+            for (long id : ids.toArray()) {
+                invalidate(id);
+            }
+        }
+    }
+
+    private void invalidate(long id) {
+        clearDistancesById.remove(id);
+        long[] cells = cellsById.remove(id);
+        if (cells != null) {
+            for (long cell : cells) {
+                TLongSet ids = idsByCell.get(cell);
+                ids.remove(id);
+                if (ids.isEmpty()) {
+                    idsByCell.remove(cell);
+                }
+            }
+        }
+    }
+
+    /**
+     * Walks the voxels along the line (with a 3D DDA), skipping the block the line starts in, and records the cells
+     * it went through.
+     *
+     * @return the distance to the first solid block, maxDistance if there is none, or -1 if a block on the way is not
+     * loaded
+     */
+    private float raycast(Vector3f position, Vector3f direction, float maxDistance) {
+        float length = direction.length();
+        if (length == 0) {
+            return maxDistance;
+        }
+        // blocks are centered on integer coordinates
+        float originX = position.x + 0.5f;
+        float originY = position.y + 0.5f;
+        float originZ = position.z + 0.5f;
+        float dx = direction.x / length;
+        float dy = direction.y / length;
+        float dz = direction.z / length;
+        int x = (int) Math.floor(originX);
+        int y = (int) Math.floor(originY);
+        int z = (int) Math.floor(originZ);
+        int stepX = dx > 0 ? 1 : -1;
+        int stepY = dy > 0 ? 1 : -1;
+        int stepZ = dz > 0 ? 1 : -1;
+        float deltaX = dx != 0 ? Math.abs(1 / dx) : Float.POSITIVE_INFINITY;
+        float deltaY = dy != 0 ? Math.abs(1 / dy) : Float.POSITIVE_INFINITY;
+        float deltaZ = dz != 0 ? Math.abs(1 / dz) : Float.POSITIVE_INFINITY;
+        float nextX = dx != 0 ? (dx > 0 ? x + 1 - originX : originX - x) * deltaX : Float.POSITIVE_INFINITY;
+        float nextY = dy != 0 ? (dy > 0 ? y + 1 - originY : originY - y) * deltaY : Float.POSITIVE_INFINITY;
+        float nextZ = dz != 0 ? (dz > 0 ? z + 1 - originZ : originZ - z) * deltaZ : Float.POSITIVE_INFINITY;
+        visitedCells.add(cellOf(x, y, z));
+        while (true) {
+            float distance;
+            if (nextX <= nextY && nextX <= nextZ) {
+                distance = nextX;
+                x += stepX;
+                nextX += deltaX;
+            } else if (nextY <= nextZ) {
+                distance = nextY;
+                y += stepY;
+                nextY += deltaY;
+            } else {
+                distance = nextZ;
+                z += stepZ;
+                nextZ += deltaZ;
+            }
+            if (distance > maxDistance) {
+                return maxDistance;
+            }
+            if (!worldProvider.isBlockRelevant(x, y, z)) {
+                return -1;
+            }
+            visitedCells.add(cellOf(x, y, z));
+            if (!worldProvider.getBlock(x, y, z).isPenetrable()) {
+                return distance;
+            }
+        }
+    }
+
+    private static long cellOf(int x, int y, int z) {
+        return CharacterGrid.cellKey((float) x, (float) y, (float) z);
+    }
+}
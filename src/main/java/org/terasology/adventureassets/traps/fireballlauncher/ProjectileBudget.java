@@ -0,0 +1,107 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps.fireballlauncher;
+
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import org.terasology.entitySystem.entity.EntityRef;
+
+/**
+ * Keeps track of the live projectiles spawned by the fireball launchers, and counts the shots which were fired,
+ * deferred or dropped because of the budget of live projectiles. A volley counts as many projectiles as it has
+ * fireballs, although it is a single entity, since each of them is simulated.
+ */
+public class ProjectileBudget {
+    private final TLongIntMap weightsById = new TLongIntHashMap();
+    private int live;
+    private long shotsFired;
+    private long shotsDeferred;
+    private long shotsDropped;
+
+    /**
+     * @param projectile the projectile entity, a fireball or a volley
+     * @param weight the number of projectiles it counts as
+     */
+    public void add(EntityRef projectile, int weight) {
+        live += weight - weightsById.put(projectile.getId(), weight);
+    }
+
+    /**
+     * @param projectile the projectile entity which got removed
+     */
+    public void release(EntityRef projectile) {
+        live -= weightsById.remove(projectile.getId());
+    }
+
+    public void clear() {
+        weightsById.clear();
+        live = 0;
+    }
+
+    /**
+     * @return the number of live projectiles
+     */
+    public int getLive() {
+        return live;
+    }
+
+    /**
+     * @param maxLive the maximum number of live projectiles, 0 for no limit
+     * @return the number of projectiles which may still be spawned
+     */
+    public int getAvailable(int maxLive) {
+        if (maxLive <= 0) {
+            return Integer.MAX_VALUE;
+        }
+        return Math.max(0, maxLive - live);
+    }
+
+    public void countFired() {
+        shotsFired++;
+    }
+
+    public void countDeferred() {
+        shotsDeferred++;
+    }
+
+    public void countDropped() {
+        shotsDropped++;
+    }
+
+    public long getShotsFired() {
+        return shotsFired;
+    }
+
+    /**
+     * @return the number of shots which were deferred at least once
+     */
+    public long getShotsDeferred() {
+        return shotsDeferred;
+    }
+
+    /**
+     * @return the number of shots which were deferred for too long, and skipped
+     */
+    public long getShotsDropped() {
+        return shotsDropped;
+    }
+
+    public void resetCounters() {
+        shotsFired = 0;
+        shotsDeferred = 0;
+        shotsDropped = 0;
+    }
+}
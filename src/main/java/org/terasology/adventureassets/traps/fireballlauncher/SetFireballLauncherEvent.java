@@ -29,12 +29,15 @@ public class SetFireballLauncherEvent implements Event {
     private Vector3f direction = Vector3f.north();
     private int maxDistance = 24;
     private int damageAmount = 20;
+    private boolean isTracking;
+    private float trackingAngle = 30f;
 
     public SetFireballLauncherEvent() {
         fireballLauncherRoot = EntityRef.NULL;
     }
 
-    public SetFireballLauncherEvent(EntityRef doorEntity, boolean isFiring, float timePeriod, float offset, Vector3f direction, int maxDistance, int damageAmount) {
+    public SetFireballLauncherEvent(EntityRef doorEntity, boolean isFiring, float timePeriod, float offset, Vector3f direction, int maxDistance, int damageAmount,
+                                    boolean isTracking, float trackingAngle) {
         this.fireballLauncherRoot = doorEntity;
         this.isFiring = isFiring;
         this.timePeriod = timePeriod;
@@ -42,6 +45,8 @@ public class SetFireballLauncherEvent implements Event {
         this.direction = direction;
         this.maxDistance = maxDistance;
         this.damageAmount = damageAmount;
+        this.isTracking = isTracking;
+        this.trackingAngle = trackingAngle;
     }
 
     public EntityRef getFireballLauncherRoot() {
@@ -71,4 +76,12 @@ public class SetFireballLauncherEvent implements Event {
     public int getMaxDistance() {
         return maxDistance;
     }
+
+    public boolean isTracking() {
+        return isTracking;
+    }
+
+    public float getTrackingAngle() {
+        return trackingAngle;
+    }
 }
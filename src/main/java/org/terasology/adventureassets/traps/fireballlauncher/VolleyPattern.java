@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps.fireballlauncher;
+
+import org.terasology.math.geom.Vector3f;
+
+/**
+ * The patterns in which a fireball launcher can fire a volley of fireballs, see {@link FireballVolleyComponent}.
+ * The server and the clients derive the path of every fireball of a volley from the same pattern, so only the
+ * parameters of the volley have to be replicated.
+ */
+public enum VolleyPattern {
+    /**
+     * A single regular fireball, no volley
+     */
+    NONE,
+    /**
+     * A horizontal fan around the direction, spanning the volley spacing (in radians)
+     */
+    SPREAD,
+    /**
+     * Parallel fireballs side by side, the volley spacing (in blocks) apart
+     */
+    LINE,
+    /**
+     * Fireballs evenly spread on a cone around the direction, opening by the volley spacing (in radians)
+     */
+    RING;
+
+    /**
+     * Computes the path of one fireball of a volley.
+     *
+     * @param index the index of the fireball in the volley
+     * @param size the number of fireballs in the volley
+     * @param spacing the spacing of the volley, whose unit depends on the pattern
+     * @param direction the normalized direction of the launcher
+     * @param outDirection is set to the normalized direction of the fireball
+     * @param outOffset is set to the position the fireball starts at, relative to the launcher
+     */
+    public void getShot(int index, int size, float spacing, Vector3f direction, Vector3f outDirection,
+                        Vector3f outOffset) {
+        outDirection.set(direction);
+        outOffset.set(0, 0, 0);
+        // from -0.5 for the first fireball to 0.5 for the last one
+        float side = size > 1 ? (float) index / (size - 1) - 0.5f : 0;
+        switch (this) {
+            case SPREAD: {
+                float angle = spacing * side;
+                float cos = (float) Math.cos(angle);
+                float sin = (float) Math.sin(angle);
+                outDirection.set(direction.x * cos + direction.z * sin, direction.y,
+                        -direction.x * sin + direction.z * cos);
+                outDirection.normalize();
+                break;
+            }
+            case LINE: {
+                Vector3f right = perpendicular(direction);
+                outOffset.set(right).scale(spacing * side * (size - 1));
+                break;
+            }
+            case RING: {
+                Vector3f right = perpendicular(direction);
+                Vector3f up = new Vector3f(direction).cross(right);
+                double angle = 2 * Math.PI * index / size;
+                float cos = (float) Math.cos(angle);
+                float sin = (float) Math.sin(angle);
+                float radial = (float) Math.sin(spacing);
+                outDirection.scale((float) Math.cos(spacing));
+                outDirection.x += radial * (right.x * cos + up.x * sin);
+                outDirection.y += radial * (right.y * cos + up.y * sin);
+                outDirection.z += radial * (right.z * cos + up.z * sin);
+                outDirection.normalize();
+                break;
+            }
+            default:
+                break;
+        }
+    }
+
+    /**
+     * @return a horizontal unit vector perpendicular to the direction, or the x axis for vertical directions
+     */
+    private static Vector3f perpendicular(Vector3f direction) {
+        Vector3f right = new Vector3f(-direction.z, 0, direction.x);
+        if (right.lengthSquared() < 0.000001f) {
+            return new Vector3f(1, 0, 0);
+        }
+        return right.normalize();
+    }
+}
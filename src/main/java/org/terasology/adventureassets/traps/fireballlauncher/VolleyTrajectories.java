@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps.fireballlauncher;
+
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.math.geom.Vector3f;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The paths of the fireballs of a volley, with their start positions and velocities packed into flat arrays.
+ * They are derived from the {@link FireballVolleyComponent}, or the settings of a client simulated launcher, alone, so
+ * the server and the clients compute the same positions for the same game time.
+ */
+class VolleyTrajectories {
+    private final int size;
+    private final float launchTime;
+    private final float[] starts;
+    private final float[] velocities;
+    private final float[] lifeTimes;
+
+    VolleyTrajectories(FireballVolleyComponent fireballVolleyComponent) {
+        this(fireballVolleyComponent.origin, fireballVolleyComponent.direction, fireballVolleyComponent.pattern,
+                fireballVolleyComponent.size, fireballVolleyComponent.spacing, fireballVolleyComponent.speed,
+                fireballVolleyComponent.launchTime, fireballVolleyComponent.ranges);
+    }
+
+    /**
+     * @param origin the position of the launcher
+     * @param launchDirection the normalized direction of the launcher
+     * @param pattern the pattern of the volley, {@link VolleyPattern#NONE} for a single fireball
+     * @param volleySize the number of fireballs
+     * @param spacing the spacing of the fireballs, whose unit depends on the pattern
+     * @param speed the speed (in blocks per second) of the fireballs
+     * @param launchTime the game time (in seconds) at which the volley was fired
+     * @param ranges the distance (in blocks) each fireball flies
+     */
+    VolleyTrajectories(Vector3f origin, Vector3f launchDirection, VolleyPattern pattern, int volleySize,
+                       float spacing, float speed, float launchTime, List<Float> ranges) {
+        size = Math.max(0, Math.min(volleySize, FireballVolleyComponent.MAX_SIZE));
+        this.launchTime = launchTime;
+        starts = new float[size * 3];
+        velocities = new float[size * 3];
+        lifeTimes = new float[size];
+        Vector3f direction = new Vector3f();
+        Vector3f offset = new Vector3f();
+        for (int i = 0; i < size; i++) {
+            pattern.getShot(i, size, spacing, launchDirection, direction, offset);
+            starts[i * 3] = origin.x + offset.x;
+            starts[i * 3 + 1] = origin.y + offset.y;
+            starts[i * 3 + 2] = origin.z + offset.z;
+            velocities[i * 3] = direction.x * speed;
+            velocities[i * 3 + 1] = direction.y * speed;
+            velocities[i * 3 + 2] = direction.z * speed;
+            float range = i < ranges.size() ? ranges.get(i) : 0;
+            lifeTimes[i] = speed > 0 ? range / speed : 0;
+        }
+    }
+
+    /**
+     * Computes the fireballs of a shot of a fireball launcher from its settings. For a client simulated launcher the
+     * server and the clients both do this for each shot.
+     *
+     * @param launcher the fireball launcher entity
+     * @param position the position of the launcher
+     * @param fireballLauncherComponent its settings
+     * @param launchTime the game time (in seconds) of the shot
+     * @param lineOfFireCache the cache of the firing lines, to clamp the ranges to the first solid block
+     * @return the trajectories of the fireballs
+     */
+    static VolleyTrajectories ofLauncher(EntityRef launcher, Vector3f position,
+                                         FireballLauncherComponent fireballLauncherComponent, float launchTime,
+                                         LineOfFireCache lineOfFireCache) {
+        Vector3f direction = getDirection(fireballLauncherComponent);
+        int size = getSize(fireballLauncherComponent);
+        List<Float> ranges = new ArrayList<>(size);
+        computeRanges(launcher, position, direction, fireballLauncherComponent, size, lineOfFireCache, ranges);
+        return new VolleyTrajectories(position, direction, fireballLauncherComponent.volleyPattern, size,
+                fireballLauncherComponent.volleySpacing, FireballVolleyComponent.DEFAULT_SPEED, launchTime, ranges);
+    }
+
+    /**
+     * @return the normalized direction of the launcher
+     */
+    static Vector3f getDirection(FireballLauncherComponent fireballLauncherComponent) {
+        Vector3f direction = new Vector3f(fireballLauncherComponent.direction);
+        if (direction.lengthSquared() > 0) {
+            direction.normalize();
+        }
+        return direction;
+    }
+
+    /**
+     * @return the number of fireballs of a shot of the launcher
+     */
+    static int getSize(FireballLauncherComponent fireballLauncherComponent) {
+        if (fireballLauncherComponent.volleyPattern == VolleyPattern.NONE) {
+            return 1;
+        }
+        return Math.max(1, Math.min(fireballLauncherComponent.volleySize, FireballVolleyComponent.MAX_SIZE));
+    }
+
+    /**
+     * Computes how far each fireball of a shot flies, clamped to the first solid block on its line. Fireballs blocked
+     * right at the muzzle get a range of 0. The line of a single fireball is the firing line of the launcher, and is
+     * cached, the lines of the fireballs of a volley are not.
+     */
+    static void computeRanges(EntityRef launcher, Vector3f position, Vector3f direction,
+                              FireballLauncherComponent fireballLauncherComponent, int size,
+                              LineOfFireCache lineOfFireCache, List<Float> ranges) {
+        float maxDistance = fireballLauncherComponent.maxDistance;
+        if (fireballLauncherComponent.volleyPattern == VolleyPattern.NONE) {
+            float range = lineOfFireCache.getClearDistance(launcher, position, direction, maxDistance);
+            ranges.add(range >= LineOfFireCache.MUZZLE_CLEARANCE ? range : 0f);
+            return;
+        }
+        Vector3f shotDirection = new Vector3f();
+        Vector3f shotPosition = new Vector3f();
+        for (int i = 0; i < size; i++) {
+            fireballLauncherComponent.volleyPattern.getShot(i, size, fireballLauncherComponent.volleySpacing, direction,
+                    shotDirection, shotPosition);
+            shotPosition.add(position);
+            float range = lineOfFireCache.getClearDistance(shotPosition, shotDirection, maxDistance);
+            ranges.add(range >= LineOfFireCache.MUZZLE_CLEARANCE ? range : 0f);
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the game time (in seconds) at which the volley was fired
+     */
+    float getLaunchTime() {
+        return launchTime;
+    }
+
+    /**
+     * @return the time (in seconds) fireball i flies before it expires or hits a block
+     */
+    float getLifeTime(int index) {
+        return lifeTimes[index];
+    }
+
+    float getStartX(int index) {
+        return starts[index * 3];
+    }
+
+    float getStartY(int index) {
+        return starts[index * 3 + 1];
+    }
+
+    float getStartZ(int index) {
+        return starts[index * 3 + 2];
+    }
+
+    float getVelocityX(int index) {
+        return velocities[index * 3];
+    }
+
+    float getVelocityY(int index) {
+        return velocities[index * 3 + 1];
+    }
+
+    float getVelocityZ(int index) {
+        return velocities[index * 3 + 2];
+    }
+
+    /**
+     * @param index the index of the fireball
+     * @param elapsed the time (in seconds) since the volley was fired, clamped to the life time of the fireball
+     * @param position is set to the position of the fireball
+     */
+    void getPosition(int index, float elapsed, Vector3f position) {
+        float t = Math.max(0, Math.min(elapsed, lifeTimes[index]));
+        position.set(starts[index * 3] + velocities[index * 3] * t,
+                starts[index * 3 + 1] + velocities[index * 3 + 1] * t,
+                starts[index * 3 + 2] + velocities[index * 3 + 2] * t);
+    }
+}
@@ -15,6 +15,7 @@
  */
 package org.terasology.adventureassets.traps.fireballlauncher.structuretemplateintegration;
 
+import org.terasology.adventureassets.traps.fireballlauncher.VolleyPattern;
 import org.terasology.entitySystem.Component;
 import org.terasology.math.geom.Quat4f;
 import org.terasology.math.geom.Vector3f;
@@ -42,5 +43,12 @@ public class AddFireballLauncherComponent implements Component {
         public Vector3f direction;
         public int maxDistance;
         public int damageAmount;
+        public float activationDistance;
+        public VolleyPattern volleyPattern = VolleyPattern.NONE;
+        public int volleySize = 5;
+        public float volleySpacing = 0.5f;
+        public boolean clientSimulated;
+        public boolean isTracking;
+        public float trackingAngle = 30f;
     }
 }
@@ -17,13 +17,17 @@ package org.terasology.adventureassets.traps.fireballlauncher.structuretemplatei
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.terasology.adventureassets.traps.TrapSettingsSystem;
+import org.terasology.adventureassets.traps.TrapSpawnQueue;
+import org.terasology.adventureassets.traps.structuretemplateintegration.TrapTemplateCapture;
+import org.terasology.adventureassets.traps.structuretemplateintegration.TrapTemplateCaptureSystem;
+import org.terasology.adventureassets.traps.structuretemplateintegration.TrapTemplateJsonWriter;
 import org.terasology.adventureassets.traps.fireballlauncher.FireballLauncherComponent;
 import org.terasology.entitySystem.entity.EntityRef;
 import org.terasology.entitySystem.event.ReceiveEvent;
 import org.terasology.entitySystem.systems.BaseComponentSystem;
 import org.terasology.entitySystem.systems.RegisterMode;
 import org.terasology.entitySystem.systems.RegisterSystem;
-import org.terasology.logic.location.LocationComponent;
 import org.terasology.math.Side;
 import org.terasology.math.geom.Quat4f;
 import org.terasology.math.geom.Vector3f;
@@ -33,24 +37,25 @@ import org.terasology.structureTemplates.events.BuildStructureTemplateEntityEven
 import org.terasology.structureTemplates.events.SpawnTemplateEvent;
 import org.terasology.structureTemplates.events.StructureBlocksSpawnedEvent;
 import org.terasology.structureTemplates.internal.events.BuildStructureTemplateStringEvent;
-import org.terasology.structureTemplates.util.ListUtil;
 import org.terasology.structureTemplates.util.transform.BlockRegionTransform;
 import org.terasology.world.BlockEntityRegistry;
-import org.terasology.world.block.BlockComponent;
-import org.terasology.world.block.BlockManager;
-import org.terasology.world.block.family.BlockFamily;
 
 import java.util.ArrayList;
 import java.util.List;
 
 @RegisterSystem(RegisterMode.AUTHORITY)
-public class FireballLauncherSTServerSystem extends BaseComponentSystem {
+public class FireballLauncherSTServerSystem extends BaseComponentSystem
+        implements TrapTemplateCapture<AddFireballLauncherComponent.FireballLauncherToSpawn> {
     private static final Logger logger = LoggerFactory.getLogger(FireballLauncherSTServerSystem.class);
 
-    @In
-    BlockManager blockManager;
     @In
     BlockEntityRegistry blockEntityRegistry;
+    @In
+    TrapSpawnQueue trapSpawnQueue;
+    @In
+    TrapTemplateCaptureSystem trapTemplateCaptureSystem;
+    @In
+    TrapSettingsSystem trapSettingsSystem;
 
     @ReceiveEvent
     public void onSpawnStructure(StructureBlocksSpawnedEvent event, EntityRef entity,
@@ -64,58 +69,137 @@ public class FireballLauncherSTServerSystem extends BaseComponentSystem {
     }
 
     /**
-     * This method is used to retrieve the stored settings for each Fireball Launcher once it is spawned.
+     * This method is used to retrieve the stored settings for each Fireball Launcher once it is spawned.<br/>
+     * All launchers are looked up before any of them is configured. The configuration itself is queued in the
+     * {@link TrapSpawnQueue}, which keeps the launchers from firing until it got to them.
      *
      * @param addFireballLauncherComponent
      * @param transformation
      */
     private void configureFireballLaunchers(AddFireballLauncherComponent addFireballLauncherComponent, BlockRegionTransform transformation) {
-        for (AddFireballLauncherComponent.FireballLauncherToSpawn f : addFireballLauncherComponent.fireballLaunchersToSpawn) {
+        List<AddFireballLauncherComponent.FireballLauncherToSpawn> toSpawn =
+                addFireballLauncherComponent.fireballLaunchersToSpawn;
+        List<Vector3i> positions = new ArrayList<>(toSpawn.size());
+        List<EntityRef> fireballLaunchers = new ArrayList<>(toSpawn.size());
+        for (AddFireballLauncherComponent.FireballLauncherToSpawn f : toSpawn) {
             Vector3i absolutePosition = transformation.transformVector3i(f.position);
-            EntityRef fireballLauncher = blockEntityRegistry.getBlockEntityAt(absolutePosition);
-            FireballLauncherComponent fireballLauncherComponent = fireballLauncher.getComponent(FireballLauncherComponent.class);
-            fireballLauncherComponent.isFiring = f.isFiring;
-            fireballLauncherComponent.timePeriod = f.timePeriod;
-            fireballLauncherComponent.offset = f.offset;
-            fireballLauncherComponent.direction = convertDirectionToAbsolute(f.direction, transformation.transformSide(Side.FRONT));
-            fireballLauncherComponent.maxDistance = f.maxDistance;
-            fireballLauncherComponent.damageAmount = f.damageAmount;
-            fireballLauncher.saveComponent(fireballLauncherComponent);
-            LocationComponent locationComponent = fireballLauncher.getComponent(LocationComponent.class);
-            fireballLauncher.addOrSaveComponent(locationComponent);
+            positions.add(absolutePosition);
+            fireballLaunchers.add(blockEntityRegistry.getBlockEntityAt(absolutePosition));
+        }
 
+        Side front = transformation.transformSide(Side.FRONT);
+        for (int i = 0; i < toSpawn.size(); i++) {
+            AddFireballLauncherComponent.FireballLauncherToSpawn f = toSpawn.get(i);
+            Vector3i absolutePosition = positions.get(i);
+            Vector3f direction = convertDirectionToAbsolute(f.direction, front);
+            trapSpawnQueue.enqueue(fireballLaunchers.get(i), fireballLauncher -> configureFireballLauncher(
+                    fireballLauncher, f, absolutePosition, direction));
         }
     }
 
-    @ReceiveEvent
-    public void onBuildTemplateWithScheduledStructurePlacement(BuildStructureTemplateEntityEvent event, EntityRef entity) {
-        BlockRegionTransform transformToRelative = event.getTransformToRelative();
-        BlockFamily blockFamily = blockManager.getBlockFamily("AdventureAssets:FireballLauncherRoot");
-
-        List<AddFireballLauncherComponent.FireballLauncherToSpawn> fireballLaunchersToSpawn = new ArrayList<>();
-
-        for (Vector3i position : event.findAbsolutePositionsOf(blockFamily)) {
-            EntityRef blockEntity = blockEntityRegistry.getBlockEntityAt(position);
-            BlockComponent blockComponent = blockEntity.getComponent(BlockComponent.class);
-            FireballLauncherComponent fireballLauncherComponent = blockEntity.getComponent(FireballLauncherComponent.class);
-            AddFireballLauncherComponent.FireballLauncherToSpawn fireballLauncherToSpawn = new AddFireballLauncherComponent.FireballLauncherToSpawn();
-            Vector3i absolutePosition = new Vector3i(blockComponent.getPosition());
-            fireballLauncherToSpawn.position = transformToRelative.transformVector3i(absolutePosition);
-            fireballLauncherToSpawn.isFiring = fireballLauncherComponent.isFiring;
-            fireballLauncherToSpawn.timePeriod = fireballLauncherComponent.timePeriod;
-            fireballLauncherToSpawn.offset = fireballLauncherComponent.offset;
-            fireballLauncherToSpawn.direction = convertDirectionToRelative(fireballLauncherComponent.direction, transformToRelative.transformSide(Side.FRONT));
-            fireballLauncherToSpawn.damageAmount = fireballLauncherComponent.damageAmount;
-            fireballLauncherToSpawn.maxDistance = fireballLauncherComponent.maxDistance;
-
-            fireballLaunchersToSpawn.add(fireballLauncherToSpawn);
+    /**
+     * Applies the settings of the template to the launcher. The launcher is saved at most once, and only if the
+     * template actually changes its settings; its rotation is never touched, since the direction is stored in the
+     * {@link FireballLauncherComponent}.
+     *
+     * @param fireballLauncher
+     * @param f
+     * @param absolutePosition
+     * @param direction
+     */
+    private void configureFireballLauncher(EntityRef fireballLauncher,
+                                           AddFireballLauncherComponent.FireballLauncherToSpawn f,
+                                           Vector3i absolutePosition, Vector3f direction) {
+        FireballLauncherComponent fireballLauncherComponent =
+                fireballLauncher.getComponent(FireballLauncherComponent.class);
+        if (fireballLauncherComponent == null) {
+            logger.warn("No fireball launcher found at {} to configure", absolutePosition);
+            return;
+        }
+        if (matches(fireballLauncherComponent, f, direction)) {
+            return;
         }
+        fireballLauncherComponent.isFiring = f.isFiring;
+        fireballLauncherComponent.timePeriod = f.timePeriod;
+        fireballLauncherComponent.offset = f.offset;
+        fireballLauncherComponent.direction = direction;
+        fireballLauncherComponent.maxDistance = f.maxDistance;
+        fireballLauncherComponent.damageAmount = f.damageAmount;
+        fireballLauncherComponent.activationDistance = f.activationDistance;
+        fireballLauncherComponent.volleyPattern = f.volleyPattern;
+        fireballLauncherComponent.volleySize = f.volleySize;
+        fireballLauncherComponent.volleySpacing = f.volleySpacing;
+        fireballLauncherComponent.clientSimulated = f.clientSimulated;
+        fireballLauncherComponent.isTracking = f.isTracking;
+        fireballLauncherComponent.trackingAngle = f.trackingAngle;
+        fireballLauncher.saveComponent(fireballLauncherComponent);
+    }
+
+    private boolean matches(FireballLauncherComponent component, AddFireballLauncherComponent.FireballLauncherToSpawn f,
+                            Vector3f direction) {
+        return component.isFiring == f.isFiring
+                && component.timePeriod == f.timePeriod
+                && component.offset == f.offset
+                && direction.equals(component.direction)
+                && component.maxDistance == f.maxDistance
+                && component.damageAmount == f.damageAmount
+                && component.activationDistance == f.activationDistance
+                && component.volleyPattern == f.volleyPattern
+                && component.volleySize == f.volleySize
+                && component.volleySpacing == f.volleySpacing
+                && component.clientSimulated == f.clientSimulated
+                && component.isTracking == f.isTracking
+                && component.trackingAngle == f.trackingAngle;
+    }
+
+    @Override
+    public void initialise() {
+        trapTemplateCaptureSystem.register("AdventureAssets:FireballLauncherRoot", this);
+    }
 
-        if (fireballLaunchersToSpawn.size() > 0) {
-            AddFireballLauncherComponent addFireballLauncherComponent = new AddFireballLauncherComponent();
-            addFireballLauncherComponent.fireballLaunchersToSpawn = fireballLaunchersToSpawn;
-            event.getTemplateEntity().addOrSaveComponent(addFireballLauncherComponent);
+    /**
+     * Describes the fireball launcher in template coordinates. Called by the {@link TrapTemplateCaptureSystem} for
+     * every block of the AdventureAssets:FireballLauncherRoot family in a captured template.
+     *
+     * @param blockEntity
+     * @param absolutePosition
+     * @param transformToRelative
+     * @return the entry to spawn the fireball launcher again
+     */
+    @Override
+    public AddFireballLauncherComponent.FireballLauncherToSpawn capture(EntityRef blockEntity,
+                                                                        Vector3i absolutePosition,
+                                                                        BlockRegionTransform transformToRelative) {
+        FireballLauncherComponent fireballLauncherComponent = blockEntity.getComponent(FireballLauncherComponent.class);
+        if (fireballLauncherComponent == null) {
+            return null;
         }
+        AddFireballLauncherComponent.FireballLauncherToSpawn fireballLauncherToSpawn =
+                new AddFireballLauncherComponent.FireballLauncherToSpawn();
+        fireballLauncherToSpawn.position = transformToRelative.transformVector3i(absolutePosition);
+        fireballLauncherToSpawn.isFiring = fireballLauncherComponent.isFiring;
+        fireballLauncherToSpawn.timePeriod = fireballLauncherComponent.timePeriod;
+        fireballLauncherToSpawn.offset = fireballLauncherComponent.offset;
+        fireballLauncherToSpawn.direction = convertDirectionToRelative(fireballLauncherComponent.direction,
+                transformToRelative.transformSide(Side.FRONT));
+        fireballLauncherToSpawn.damageAmount = fireballLauncherComponent.damageAmount;
+        fireballLauncherToSpawn.maxDistance = fireballLauncherComponent.maxDistance;
+        fireballLauncherToSpawn.activationDistance = fireballLauncherComponent.activationDistance;
+        fireballLauncherToSpawn.volleyPattern = fireballLauncherComponent.volleyPattern;
+        fireballLauncherToSpawn.volleySize = fireballLauncherComponent.volleySize;
+        fireballLauncherToSpawn.volleySpacing = fireballLauncherComponent.volleySpacing;
+        fireballLauncherToSpawn.clientSimulated = fireballLauncherComponent.clientSimulated;
+        fireballLauncherToSpawn.isTracking = fireballLauncherComponent.isTracking;
+        fireballLauncherToSpawn.trackingAngle = fireballLauncherComponent.trackingAngle;
+        return fireballLauncherToSpawn;
+    }
+
+    @Override
+    public void save(BuildStructureTemplateEntityEvent event,
+                     List<AddFireballLauncherComponent.FireballLauncherToSpawn> entries) {
+        AddFireballLauncherComponent addFireballLauncherComponent = new AddFireballLauncherComponent();
+        addFireballLauncherComponent.fireballLaunchersToSpawn = new ArrayList<>(entries);
+        event.getTemplateEntity().addOrSaveComponent(addFireballLauncherComponent);
     }
 
     private Vector3f convertDirectionToRelative(Vector3f direction, Side side) {
@@ -169,49 +253,8 @@ public class FireballLauncherSTServerSystem extends BaseComponentSystem {
     @ReceiveEvent
     public void onBuildTemplateStringWithBlockRegions(BuildStructureTemplateStringEvent event, EntityRef template,
                                                       AddFireballLauncherComponent component) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("    \"AddFireballLauncher\": {\n");
-        sb.append("        \"fireballLaunchersToSpawn\": [\n");
-        ListUtil.visitList(component.fireballLaunchersToSpawn,
-                (AddFireballLauncherComponent.FireballLauncherToSpawn fireballLauncher, boolean last) -> {
-                    sb.append("            {\n");
-                    sb.append("                \"position\": [");
-                    sb.append(fireballLauncher.position.x);
-                    sb.append(", ");
-                    sb.append(fireballLauncher.position.y);
-                    sb.append(", ");
-                    sb.append(fireballLauncher.position.z);
-                    sb.append("],\n");
-                    sb.append("                \"isFiring\": ");
-                    sb.append(fireballLauncher.isFiring);
-                    sb.append(",\n");
-                    sb.append("                \"timePeriod\": ");
-                    sb.append(fireballLauncher.timePeriod);
-                    sb.append(",\n");
-                    sb.append("                \"offset\": ");
-                    sb.append(fireballLauncher.offset);
-                    sb.append(",\n");
-                    sb.append("                \"direction\": [");
-                    sb.append(fireballLauncher.direction.x);
-                    sb.append(", ");
-                    sb.append(fireballLauncher.direction.y);
-                    sb.append(", ");
-                    sb.append(fireballLauncher.direction.z);
-                    sb.append("],\n");
-                    sb.append("                \"maxDistance\": ");
-                    sb.append(fireballLauncher.maxDistance);
-                    sb.append(",\n");
-                    sb.append("                \"damageAmount\": ");
-                    sb.append(fireballLauncher.damageAmount);
-                    sb.append("\n");
-                    if (last) {
-                        sb.append("            }\n");
-                    } else {
-                        sb.append("            },\n");
-                    }
-                });
-        sb.append("        ]\n");
-        sb.append("    }");
-        event.addJsonForComponent(sb.toString(), AddFireballLauncherComponent.class);
+        int floatPrecision = trapSettingsSystem.getSettings().templateFloatPrecision;
+        String json = new TrapTemplateJsonWriter(floatPrecision).write(component);
+        event.addJsonForComponent(json, AddFireballLauncherComponent.class);
     }
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps.structuretemplateintegration;
+
+import org.terasology.adventureassets.traps.TrapClockComponent;
+import org.terasology.entitySystem.Component;
+import org.terasology.reflection.MappedContainer;
+
+import java.util.List;
+
+/**
+ * This component is intended to be used in structure templates.
+ * <p>
+ * It creates the clock groups the traps of the structure refer to with their clockGroup, when the structure is
+ * spawned. The names are local to the spawned structure, see
+ * {@link org.terasology.adventureassets.traps.TrapClockSystem#scopeGroup}, so every spawned structure gets clocks of
+ * its own. A group which already exists, because the structure was spawned at the same place before, is kept.
+ */
+public class AddTrapClockComponent implements Component {
+    public List<TrapClockToSpawn> trapClocksToSpawn;
+
+    /**
+     * The initial state of a {@link TrapClockComponent}.
+     */
+    @MappedContainer
+    public static class TrapClockToSpawn {
+        public String name = "";
+        public float speed = 1f;
+        public boolean paused = false;
+    }
+}
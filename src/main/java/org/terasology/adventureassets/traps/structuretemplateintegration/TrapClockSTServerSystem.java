@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps.structuretemplateintegration;
+
+import org.terasology.adventureassets.AssetHandle;
+import org.terasology.adventureassets.AssetHandleRegistry;
+import org.terasology.adventureassets.traps.TrapClockComponent;
+import org.terasology.adventureassets.traps.TrapClockSystem;
+import org.terasology.engine.Time;
+import org.terasology.entitySystem.entity.EntityBuilder;
+import org.terasology.entitySystem.entity.EntityManager;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.entitySystem.prefab.PrefabData;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.registry.In;
+import org.terasology.structureTemplates.events.SpawnTemplateEvent;
+import org.terasology.structureTemplates.events.StructureBlocksSpawnedEvent;
+import org.terasology.structureTemplates.util.transform.BlockRegionTransform;
+
+/**
+ * Creates the clock groups of a spawned structure from the "AdventureAssets:trapClock" prefab, which has a Network
+ * component so that the state of the clocks reaches the clients that animate the traps.
+ * <p>
+ * The groups are scoped to the spawned structure with {@link TrapClockSystem#scopeGroup}, like the clockGroup of its
+ * traps, so pausing the clock of one room leaves the other rooms spawned from the same template running.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+public class TrapClockSTServerSystem extends BaseComponentSystem {
+
+    @In
+    private EntityManager entityManager;
+    @In
+    private Time time;
+    @In
+    private TrapClockSystem trapClockSystem;
+    @In
+    private AssetHandleRegistry assetHandleRegistry;
+
+    private AssetHandle<Prefab, PrefabData> trapClockPrefab;
+
+    @Override
+    public void initialise() {
+        trapClockPrefab = assetHandleRegistry.register("AdventureAssets:trapClock", Prefab.class);
+    }
+
+    @ReceiveEvent
+    public void onSpawnStructure(StructureBlocksSpawnedEvent event, EntityRef entity,
+                                 AddTrapClockComponent addTrapClockComponent) {
+        createTrapClocks(addTrapClockComponent, event.getTransformation());
+    }
+
+    @ReceiveEvent
+    public void onSpawnTemplate(SpawnTemplateEvent event, EntityRef entity,
+                                AddTrapClockComponent addTrapClockComponent) {
+        createTrapClocks(addTrapClockComponent, event.getTransformation());
+    }
+
+    private void createTrapClocks(AddTrapClockComponent addTrapClockComponent, BlockRegionTransform transformation) {
+        Vector3i origin = transformation.transformVector3i(new Vector3i(0, 0, 0));
+        for (AddTrapClockComponent.TrapClockToSpawn c : addTrapClockComponent.trapClocksToSpawn) {
+            String name = TrapClockSystem.scopeGroup(c.name, origin);
+            if (name.isEmpty() || trapClockSystem.getGroup(name).exists()) {
+                continue;
+            }
+            EntityBuilder clockEntityBuilder = entityManager.newBuilder(trapClockPrefab.get());
+            TrapClockComponent clockComponent = clockEntityBuilder.getComponent(TrapClockComponent.class);
+            clockComponent.name = name;
+            clockComponent.speed = c.speed;
+            clockComponent.paused = c.paused;
+            clockComponent.anchorGameTime = time.getGameTime();
+            clockComponent.anchorClockTime = 0;
+            clockEntityBuilder.saveComponent(clockComponent);
+            clockEntityBuilder.build();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps.structuretemplateintegration;
+
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.structureTemplates.events.BuildStructureTemplateEntityEvent;
+import org.terasology.structureTemplates.util.transform.BlockRegionTransform;
+
+import java.util.List;
+
+/**
+ * Captures the traps of one block family into a structure template. It is registered with the
+ * {@link TrapTemplateCaptureSystem}, which hands it the trap blocks of its family while it walks the template region.
+ *
+ * @param <T> the entry of the Add*Component describing one trap to spawn
+ */
+public interface TrapTemplateCapture<T> {
+
+    /**
+     * @param blockEntity the trap block entity
+     * @param absolutePosition the world position of the trap block
+     * @param transformToRelative the transformation from world to template coordinates
+     * @return the entry describing the trap, or null if the block holds no such trap
+     */
+    T capture(EntityRef blockEntity, Vector3i absolutePosition, BlockRegionTransform transformToRelative);
+
+    /**
+     * Adds the Add*Component holding the captured traps to the template entity. Only called if any were captured.
+     *
+     * @param event the event building the template entity
+     * @param entries the captured traps
+     */
+    void save(BuildStructureTemplateEntityEvent event, List<T> entries);
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps.structuretemplateintegration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.event.ReceiveEvent;
+import org.terasology.entitySystem.systems.BaseComponentSystem;
+import org.terasology.entitySystem.systems.RegisterMode;
+import org.terasology.entitySystem.systems.RegisterSystem;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.registry.In;
+import org.terasology.registry.Share;
+import org.terasology.structureTemplates.events.BuildStructureTemplateEntityEvent;
+import org.terasology.structureTemplates.util.transform.BlockRegionTransform;
+import org.terasology.world.BlockEntityRegistry;
+import org.terasology.world.block.Block;
+import org.terasology.world.block.BlockManager;
+import org.terasology.world.block.family.BlockFamily;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Captures the traps of all families into a structure template in a single pass: the blocks of the template region
+ * are walked once, and each trap block is handed to the {@link TrapTemplateCapture} registered for its block family.
+ */
+@RegisterSystem(RegisterMode.AUTHORITY)
+@Share(TrapTemplateCaptureSystem.class)
+public class TrapTemplateCaptureSystem extends BaseComponentSystem {
+    private static final Logger logger = LoggerFactory.getLogger(TrapTemplateCaptureSystem.class);
+
+    @In
+    private BlockManager blockManager;
+    @In
+    private BlockEntityRegistry blockEntityRegistry;
+
+    private final Map<String, TrapTemplateCapture<?>> capturesByFamily = new LinkedHashMap<>();
+
+    /**
+     * Registers the capture of the traps of a block family. May be called from the initialise() of other systems.
+     *
+     * @param blockFamily the uri of the block family of the trap blocks
+     * @param capture the capture of these traps
+     */
+    public void register(String blockFamily, TrapTemplateCapture<?> capture) {
+        capturesByFamily.put(blockFamily, capture);
+    }
+
+    @ReceiveEvent
+    public void onBuildTemplateWithScheduledStructurePlacement(BuildStructureTemplateEntityEvent event, EntityRef entity) {
+        Map<BlockFamily, Pass<?>> passesByFamily = new HashMap<>();
+        List<Pass<?>> passes = new ArrayList<>();
+        for (Map.Entry<String, TrapTemplateCapture<?>> entry : capturesByFamily.entrySet()) {
+            BlockFamily blockFamily = blockManager.getBlockFamily(entry.getKey());
+            if (blockFamily == null) {
+                logger.warn("Block family {} of a trap is not available", entry.getKey());
+                continue;
+            }
+            Pass<?> pass = Pass.of(entry.getValue());
+            passesByFamily.put(blockFamily, pass);
+            passes.add(pass);
+        }
+
+        BlockRegionTransform transformToRelative = event.getTransformToRelative();
+        for (Map.Entry<Block, Set<Vector3i>> entry : event.getBlockToAbsolutePositionsMap().entrySet()) {
+            Pass<?> pass = passesByFamily.get(entry.getKey().getBlockFamily());
+            if (pass != null) {
+                for (Vector3i position : entry.getValue()) {
+                    pass.capture(blockEntityRegistry.getBlockEntityAt(position), position, transformToRelative);
+                }
+            }
+        }
+
+        for (Pass<?> pass : passes) {
+            pass.save(event);
+        }
+    }
+
+    private static final class Pass<T> {
+        private final TrapTemplateCapture<T> capture;
+        private final List<T> entries = new ArrayList<>();
+
+        private Pass(TrapTemplateCapture<T> capture) {
+            this.capture = capture;
+        }
+
+        private static <T> Pass<T> of(TrapTemplateCapture<T> capture) {
+            return new Pass<>(capture);
+        }
+
+        private void capture(EntityRef blockEntity, Vector3i absolutePosition,
+                             BlockRegionTransform transformToRelative) {
+            T entry = capture.capture(blockEntity, absolutePosition, transformToRelative);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+
+        private void save(BuildStructureTemplateEntityEvent event) {
+            if (!entries.isEmpty()) {
+                capture.save(event, entries);
+            }
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps.structuretemplateintegration;
+
+import org.terasology.entitySystem.Component;
+import org.terasology.math.geom.Quat4f;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.reflection.MappedContainer;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes the JSON of an Add*Component of a trap family for a structure template, i.e. lists of {@link MappedContainer}
+ * trap specs, straight into a buffer sized for the number of traps.
+ * <p>
+ * The fields of a spec are found by reflection, and only written if they differ from the value a new spec has, since
+ * such fields get that value again when the template is loaded. Fields holding a NaN or infinite float are left out
+ * as well, as JSON has no numbers for them, so they get the default value instead. Supported field types are boolean,
+ * int, float, {@link String}, enums, {@link Vector3i}, {@link Vector3f} and {@link Quat4f}.
+ */
+public class TrapTemplateJsonWriter {
+    private static final int ESTIMATED_FIELD_LENGTH = 40;
+    private static final Map<Class<?>, SpecLayout> LAYOUTS = new ConcurrentHashMap<>();
+
+    private final int floatPrecision;
+    private final long floatScale;
+    private StringBuilder sb;
+
+    /**
+     * @param floatPrecision the maximum number of decimals written for float values, or a negative number to write
+     *                       them with the full precision of {@link Float#toString(float)}
+     */
+    public TrapTemplateJsonWriter(int floatPrecision) {
+        this.floatPrecision = Math.min(floatPrecision, 9);
+        this.floatScale = pow10(this.floatPrecision);
+    }
+
+    /**
+     * @param component the Add*Component whose fields are lists of {@link MappedContainer} trap specs
+     * @return the JSON of the component, as expected by
+     * {@link org.terasology.structureTemplates.internal.events.BuildStructureTemplateStringEvent#addJsonForComponent}
+     * @throws IllegalArgumentException if the component holds anything but lists of supported specs
+     */
+    public String write(Component component) {
+        List<Field> lists = getPublicFields(component.getClass());
+        int capacity = 64;
+        for (Field list : lists) {
+            List<?> specs = getList(list, component);
+            if (!specs.isEmpty()) {
+                int fields = getLayout(specs.get(0).getClass()).fields.length;
+                capacity += specs.size() * (16 + fields * ESTIMATED_FIELD_LENGTH);
+            }
+        }
+        sb = new StringBuilder(capacity);
+
+        String name = component.getClass().getSimpleName();
+        if (name.endsWith("Component")) {
+            name = name.substring(0, name.length() - "Component".length());
+        }
+        sb.append("    ");
+        writeString(name);
+        sb.append(": {\n");
+        for (int i = 0; i < lists.size(); i++) {
+            Field list = lists.get(i);
+            sb.append("        ");
+            writeString(list.getName());
+            sb.append(": [\n");
+            List<?> specs = getList(list, component);
+            for (int j = 0; j < specs.size(); j++) {
+                writeSpec(specs.get(j));
+                sb.append(j < specs.size() - 1 ? ",\n" : "\n");
+            }
+            sb.append(i < lists.size() - 1 ? "        ],\n" : "        ]\n");
+        }
+        sb.append("    }");
+        String json = sb.toString();
+        sb = null;
+        return json;
+    }
+
+    private void writeSpec(Object spec) {
+        SpecLayout layout = getLayout(spec.getClass());
+        sb.append("            {");
+        boolean first = true;
+        for (int i = 0; i < layout.fields.length; i++) {
+            Object value = get(layout.fields[i], spec);
+            if (value == null || value.equals(layout.defaults[i]) || !isFinite(value)) {
+                continue;
+            }
+            sb.append(first ? "\n" : ",\n");
+            first = false;
+            sb.append("                ");
+            writeString(layout.fields[i].getName());
+            sb.append(": ");
+            writeValue(value);
+        }
+        sb.append(first ? "}" : "\n            }");
+    }
+
+    private void writeValue(Object value) {
+        if (value instanceof Float) {
+            writeFloat((Float) value);
+        } else if (value instanceof Integer || value instanceof Boolean) {
+            sb.append(value);
+        } else if (value instanceof String) {
+            writeString((String) value);
+        } else if (value instanceof Enum) {
+            writeString(((Enum<?>) value).name());
+        } else if (value instanceof Vector3i) {
+            Vector3i vector = (Vector3i) value;
+            sb.append('[').append(vector.x).append(", ").append(vector.y).append(", ").append(vector.z).append(']');
+        } else if (value instanceof Vector3f) {
+            Vector3f vector = (Vector3f) value;
+            sb.append('[');
+            writeFloat(vector.x);
+            sb.append(", ");
+            writeFloat(vector.y);
+            sb.append(", ");
+            writeFloat(vector.z);
+            sb.append(']');
+        } else if (value instanceof Quat4f) {
+            Quat4f quat = (Quat4f) value;
+            sb.append('[');
+            writeFloat(quat.x);
+            sb.append(", ");
+            writeFloat(quat.y);
+            sb.append(", ");
+            writeFloat(quat.z);
+            sb.append(", ");
+            writeFloat(quat.w);
+            sb.append(']');
+        } else {
+            throw new IllegalArgumentException("Unsupported trap spec value of type " + value.getClass().getName());
+        }
+    }
+
+    private static boolean isFinite(Object value) {
+        if (value instanceof Float) {
+            return isFinite((float) (Float) value);
+        } else if (value instanceof Vector3f) {
+            Vector3f vector = (Vector3f) value;
+            return isFinite(vector.x) && isFinite(vector.y) && isFinite(vector.z);
+        } else if (value instanceof Quat4f) {
+            Quat4f quat = (Quat4f) value;
+            return isFinite(quat.x) && isFinite(quat.y) && isFinite(quat.z) && isFinite(quat.w);
+        }
+        return true;
+    }
+
+    private static boolean isFinite(float value) {
+        return !Float.isNaN(value) && !Float.isInfinite(value);
+    }
+
+    /**
+     * Writes the finite float rounded to the configured number of decimals, without trailing zeros. Values too large
+     * to be scaled are written with {@link Float#toString(float)}.
+     */
+    private void writeFloat(float value) {
+        if (floatPrecision < 0 || Math.abs(value) >= Long.MAX_VALUE / floatScale) {
+            sb.append(value);
+            return;
+        }
+        long scaled = Math.round((double) value * floatScale);
+        if (scaled < 0) {
+            sb.append('-');
+            scaled = -scaled;
+        }
+        sb.append(scaled / floatScale);
+        long fraction = scaled % floatScale;
+        if (fraction == 0) {
+            return;
+        }
+        int decimals = floatPrecision;
+        while (fraction % 10 == 0) {
+            fraction /= 10;
+            decimals--;
+        }
+        sb.append('.');
+        for (long limit = pow10(decimals - 1); fraction < limit; limit /= 10) {
+            sb.append('0');
+        }
+        sb.append(fraction);
+    }
+
+    private static long pow10(int exponent) {
+        long result = 1;
+        for (int i = 0; i < exponent; i++) {
+            result *= 10;
+        }
+        return result;
+    }
+
+    private void writeString(String value) {
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\b':
+                    sb.append("\\b");
+                    break;
+                case '\f':
+                    sb.append("\\f");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    private static SpecLayout getLayout(Class<?> specClass) {
+        return LAYOUTS.computeIfAbsent(specClass, SpecLayout::new);
+    }
+
+    private static List<Field> getPublicFields(Class<?> type) {
+        List<Field> fields = new ArrayList<>();
+        for (Field field : type.getDeclaredFields()) {
+            int modifiers = field.getModifiers();
+            if (Modifier.isPublic(modifiers) && !Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    private static List<?> getList(Field field, Object owner) {
+        Object value = get(field, owner);
+        if (value == null) {
+            return new ArrayList<>();
+        }
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException("Field " + field.getName() + " of " + owner.getClass().getSimpleName()
+                    + " is no list of trap specs");
+        }
+        return (List<?>) value;
+    }
+
+    private static Object get(Field field, Object owner) {
+        try {
+            return field.get(owner);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Cannot read field " + field.getName(), e);
+        }
+    }
+
+    /**
+     * The serialized fields of a spec class, with the values a new spec has.
+     */
+    private static final class SpecLayout {
+        private final Field[] fields;
+        private final Object[] defaults;
+
+        private SpecLayout(Class<?> specClass) {
+            if (!specClass.isAnnotationPresent(MappedContainer.class)) {
+                throw new IllegalArgumentException(specClass.getName() + " is no @MappedContainer");
+            }
+            Object defaultSpec;
+            try {
+                defaultSpec = specClass.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalArgumentException("Cannot create a default " + specClass.getName(), e);
+            }
+            List<Field> publicFields = getPublicFields(specClass);
+            fields = publicFields.toArray(new Field[publicFields.size()]);
+            defaults = new Object[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                defaults[i] = get(fields[i], defaultSpec);
+            }
+        }
+    }
+}
@@ -15,26 +15,36 @@
  */
 package org.terasology.adventureassets.traps.swingingblade;
 
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.terasology.assets.management.AssetManager;
+import org.terasology.adventureassets.AssetHandle;
+import org.terasology.adventureassets.AssetHandleRegistry;
+import org.terasology.adventureassets.traps.TrapAnimationBatch;
+import org.terasology.adventureassets.traps.TrapClockSystem;
+import org.terasology.adventureassets.traps.TrapSettingsSystem;
 import org.terasology.engine.Time;
 import org.terasology.entitySystem.entity.EntityBuilder;
 import org.terasology.entitySystem.entity.EntityManager;
 import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeRemoveComponent;
 import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
 import org.terasology.entitySystem.event.ReceiveEvent;
 import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.entitySystem.prefab.PrefabData;
 import org.terasology.entitySystem.systems.BaseComponentSystem;
 import org.terasology.entitySystem.systems.RegisterMode;
 import org.terasology.entitySystem.systems.RegisterSystem;
 import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
 import org.terasology.logic.location.Location;
+import org.terasology.logic.location.LocationComponent;
 import org.terasology.math.geom.Quat4f;
 import org.terasology.math.geom.Vector3f;
 import org.terasology.registry.In;
 import org.terasology.world.block.BlockComponent;
-import org.terasology.world.block.items.OnBlockToItem;
 
 @RegisterSystem(RegisterMode.CLIENT)
 public class SwingingBladeClientSystem extends BaseComponentSystem implements UpdateSubscriberSystem {
@@ -44,19 +54,28 @@ public class SwingingBladeClientSystem extends BaseComponentSystem implements Up
     @In
     private EntityManager entityManager;
     @In
-    private AssetManager assetManager;
-    @In
     private Time time;
+    @In
+    private TrapClockSystem trapClockSystem;
+    @In
+    private TrapSettingsSystem trapSettingsSystem;
+    @In
+    private AssetHandleRegistry assetHandleRegistry;
+
+    private TrapAnimationBatch swingingBlades = SwingingBladeUtilities.createBatch();
+    private TLongObjectMap<EntityRef> meshesById = new TLongObjectHashMap<>();
+    private AssetHandle<Prefab, PrefabData> swingingBladeMeshPrefab;
+
+    @Override
+    public void initialise() {
+        swingingBladeMeshPrefab = assetHandleRegistry.register("AdventureAssets:swingingBladeMesh", Prefab.class);
+    }
 
     /**
-     * This method creates the mesh entity when the {@link SwingingBladeComponent} is activated. The rod and blade
-     * entities are saved in the childrenEntities list inside the {@link SwingingBladeComponent}.
-     * A similar method in the {@link SwingingBladeServerSystem} adds the rod and blade entities to the
-     * childrenEntities list.<br/>
-     * Note this happens before the block is actually placed in the world i.e. before the OnBlockItemPlacedEvent handler-
-     * {@link SwingingBladeServerSystem#onBlockToItem(OnBlockToItem, EntityRef, SwingingBladeComponent)} gets called.
-     * So, the saved properties (amplitude, time-period, offset etc) are transferred after this, maintaining
-     * only the childrenEntities list created here.
+     * This method adds the blade to the registry of swinging blades animated in {@link #update(float)} when the
+     * {@link SwingingBladeComponent} is activated, and creates its mesh entity if the
+     * {@link SwingingBladeServerSystem} already created the rod and blade entities. The meshes are kept by this system
+     * rather than in the childrenEntities list, which is owned by the server.
      *
      * @param event
      * @param entity
@@ -65,23 +84,65 @@ public class SwingingBladeClientSystem extends BaseComponentSystem implements Up
     @ReceiveEvent(components = {SwingingBladeComponent.class, BlockComponent.class})
     public void onSwingingBladeActivated(OnActivatedComponent event, EntityRef entity,
                                          SwingingBladeComponent swingingBladeComponent) {
-        // So that only the relevant server entity (which gets modified by the server system already) is operated on.
-        if (!swingingBladeComponent.childrenEntities.isEmpty()) {
-            Prefab swingingBladePrefab = assetManager.getAsset("AdventureAssets:swingingBladeMesh", Prefab.class).get();
-            EntityBuilder swingingBladeEntityBuilder = entityManager.newBuilder(swingingBladePrefab);
-            swingingBladeEntityBuilder.setOwner(entity);
-            swingingBladeEntityBuilder.setPersistent(false);
-            EntityRef swingingBladeMesh = swingingBladeEntityBuilder.build();
-            swingingBladeComponent.childrenEntities.add(swingingBladeMesh);
-            entity.saveComponent(swingingBladeComponent);
-            Location.attachChild(entity, swingingBladeMesh, new Vector3f(0, -1, 0), new Quat4f(Quat4f.IDENTITY));
+        SwingingBladeUtilities.updateBatch(swingingBlades, entity, trapClockSystem);
+        updateMesh(entity, swingingBladeComponent);
+    }
+
+    /**
+     * Keeps the animation parameters of the swinging blade up to date when its settings or its rotation are changed, e.g. by
+     * the settings screen or a structure template. This also moves it into or out of the batch when it is started or
+     * stopped. Changes made by the batch itself are ignored.<br/>
+     * The mesh follows the rod and blade entities, which the server only creates while a character is near.
+     *
+     * @param event
+     * @param entity
+     */
+    @ReceiveEvent(components = {SwingingBladeComponent.class, LocationComponent.class, BlockComponent.class})
+    public void onSwingingBladeChanged(OnChangedComponent event, EntityRef entity) {
+        if (!swingingBlades.isWritingBack()) {
+            SwingingBladeUtilities.updateBatch(swingingBlades, entity, trapClockSystem);
+            updateMesh(entity, entity.getComponent(SwingingBladeComponent.class));
+        }
+    }
+
+    @ReceiveEvent(components = {SwingingBladeComponent.class, BlockComponent.class})
+    public void onSwingingBladeDeactivated(BeforeDeactivateComponent event, EntityRef entity) {
+        swingingBlades.remove(entity);
+        destroyMesh(entity);
+    }
+
+    @ReceiveEvent(components = {SwingingBladeComponent.class, BlockComponent.class})
+    public void onSwingingBladeRemoved(BeforeRemoveComponent event, EntityRef entity) {
+        swingingBlades.remove(entity);
+        destroyMesh(entity);
+    }
+
+    private void updateMesh(EntityRef entity, SwingingBladeComponent swingingBladeComponent) {
+        if (swingingBladeComponent.childrenEntities.isEmpty()) {
+            destroyMesh(entity);
+        } else if (!meshesById.containsKey(entity.getId())) {
+            EntityBuilder meshEntityBuilder = entityManager.newBuilder(swingingBladeMeshPrefab.get());
+            meshEntityBuilder.setOwner(entity);
+            meshEntityBuilder.setPersistent(false);
+            EntityRef mesh = meshEntityBuilder.build();
+            meshesById.put(entity.getId(), mesh);
+            Location.attachChild(entity, mesh, new Vector3f(0, -1, 0), new Quat4f(Quat4f.IDENTITY));
+        }
+    }
+
+    private void destroyMesh(EntityRef entity) {
+        EntityRef mesh = meshesById.remove(entity.getId());
+        if (mesh != null) {
+            mesh.destroy();
         }
     }
 
     @Override
     public void update(float delta) {
-        for (EntityRef blade : entityManager.getEntitiesWith(SwingingBladeComponent.class, BlockComponent.class)) {
-            SwingingBladeUtilities.rotateSwingingBlade(blade, time.getGameTime());
-        }
+        boolean replicate = !trapSettingsSystem.getSettings().analyticBladePose;
+        swingingBlades.setFastTrigonometry(trapSettingsSystem.getSettings().fastTrigonometry);
+        float gameTime = time.getGameTime();
+        swingingBlades.update(gameTime, trapClockSystem.getClockTimes(gameTime));
+        swingingBlades.writeBack(replicate);
     }
 }
@@ -54,6 +54,13 @@ public class SwingingBladeComponent implements Component {
     @Replicate
     public boolean isSwinging = true;
 
+    /**
+     * The name of the {@link org.terasology.adventureassets.traps.TrapClockComponent} clock group the blade runs on,
+     * or empty to run on the game time
+     */
+    @Replicate
+    public String clockGroup = "";
+
     /**
      * Saved rotation extracted when block turns to item
      */
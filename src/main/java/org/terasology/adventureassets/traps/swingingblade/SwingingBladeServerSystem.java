@@ -18,16 +18,29 @@ package org.terasology.adventureassets.traps.swingingblade;
 import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.terasology.assets.management.AssetManager;
+import org.terasology.adventureassets.AssetHandle;
+import org.terasology.adventureassets.AssetHandleRegistry;
+import org.terasology.adventureassets.traps.CharacterGridSystem;
+import org.terasology.adventureassets.traps.FixedRateTick;
+import org.terasology.adventureassets.traps.TrapAnimationBatch;
+import org.terasology.adventureassets.traps.TrapClockSystem;
+import org.terasology.adventureassets.traps.TrapHazard;
+import org.terasology.adventureassets.traps.TrapMaterializer;
+import org.terasology.adventureassets.traps.TrapSettingsSystem;
+import org.terasology.adventureassets.traps.TrapSpawnQueue;
+import org.terasology.adventureassets.traps.TrapSpawnStateChangedEvent;
 import org.terasology.engine.Time;
 import org.terasology.entitySystem.entity.EntityBuilder;
 import org.terasology.entitySystem.entity.EntityManager;
 import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
 import org.terasology.entitySystem.entity.lifecycleEvents.BeforeRemoveComponent;
 import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
 import org.terasology.entitySystem.event.EventPriority;
 import org.terasology.entitySystem.event.ReceiveEvent;
 import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.entitySystem.prefab.PrefabData;
 import org.terasology.entitySystem.systems.BaseComponentSystem;
 import org.terasology.entitySystem.systems.RegisterMode;
 import org.terasology.entitySystem.systems.RegisterSystem;
@@ -37,29 +50,95 @@ import org.terasology.logic.location.Location;
 import org.terasology.logic.location.LocationComponent;
 import org.terasology.math.geom.Quat4f;
 import org.terasology.math.geom.Vector3f;
+import org.terasology.physics.components.RigidBodyComponent;
 import org.terasology.registry.In;
 import org.terasology.world.block.BlockComponent;
 import org.terasology.world.block.items.BlockItemComponent;
 import org.terasology.world.block.items.OnBlockItemPlaced;
 import org.terasology.world.block.items.OnBlockToItem;
 
+import java.util.function.Consumer;
+
 @RegisterSystem(RegisterMode.AUTHORITY)
 public class SwingingBladeServerSystem extends BaseComponentSystem implements UpdateSubscriberSystem {
 
     private static final Logger logger = LoggerFactory.getLogger(SwingingBladeServerSystem.class);
 
+    private static final Vector3f ROD_OFFSET = new Vector3f(0, -1, 0);
+    private static final Vector3f BLADE_OFFSET = new Vector3f(0, -7, 0);
+
     @In
     private EntityManager entityManager;
     @In
-    private AssetManager assetManager;
-    @In
     private InventoryManager inventoryManager;
     @In
     private Time time;
+    @In
+    private TrapClockSystem trapClockSystem;
+    @In
+    private CharacterGridSystem characterGridSystem;
+    @In
+    private TrapSettingsSystem trapSettingsSystem;
+    @In
+    private TrapSpawnQueue trapSpawnQueue;
+    @In
+    private AssetHandleRegistry assetHandleRegistry;
+
+    private TrapAnimationBatch swingingBlades = SwingingBladeUtilities.createBatch();
+    private TrapMaterializer materializer = new TrapMaterializer();
+    private final Consumer<EntityRef> materializeCallback = this::materialize;
+    private final Consumer<EntityRef> releaseCallback = this::release;
+    private TrapHazard[] hazards;
+    private AssetHandle<Prefab, PrefabData> rodPrefab;
+    private AssetHandle<Prefab, PrefabData> bladePrefab;
+    private FixedRateTick tick = new FixedRateTick();
+
+    @Override
+    public void initialise() {
+        rodPrefab = assetHandleRegistry.register("AdventureAssets:rod", Prefab.class);
+        bladePrefab = assetHandleRegistry.register("AdventureAssets:blade", Prefab.class);
+    }
+
+    /**
+     * The hazards are read from the prefabs once all systems, including the {@link AssetHandleRegistry}, are ready.
+     */
+    @Override
+    public void postBegin() {
+        hazards = new TrapHazard[]{TrapHazard.fromPrefab(bladePrefab.get(), BLADE_OFFSET)};
+    }
 
     @ReceiveEvent(components = {SwingingBladeComponent.class, LocationComponent.class, BlockComponent.class})
     public void onSwingingBladeDestroyed(BeforeRemoveComponent event, EntityRef entity,
                                          SwingingBladeComponent swingingBladeComponent) {
+        swingingBlades.remove(entity);
+        materializer.remove(entity);
+    }
+
+    /**
+     * Keeps the animation parameters of the swinging blade up to date when its settings or its rotation are changed, e.g. by
+     * the settings screen or a structure template. This also moves it into or out of the batch when it is started or
+     * stopped. Changes made by the batch itself are ignored.
+     *
+     * @param event
+     * @param entity
+     */
+    @ReceiveEvent(components = {SwingingBladeComponent.class, LocationComponent.class, BlockComponent.class})
+    public void onSwingingBladeChanged(OnChangedComponent event, EntityRef entity) {
+        if (!swingingBlades.isWritingBack()) {
+            updateBatch(entity);
+        }
+    }
+
+    @ReceiveEvent(components = {SwingingBladeComponent.class, BlockComponent.class})
+    public void onSwingingBladeDeactivated(BeforeDeactivateComponent event, EntityRef entity) {
+        swingingBlades.remove(entity);
+        materializer.remove(entity);
+        // The children are not persistent, so they are only dropped from the component which is about to be stored.
+        SwingingBladeComponent swingingBladeComponent = entity.getComponent(SwingingBladeComponent.class);
+        for (EntityRef child : swingingBladeComponent.childrenEntities) {
+            child.destroy();
+        }
+        swingingBladeComponent.childrenEntities.clear();
     }
 
     /**
@@ -67,8 +146,9 @@ public class SwingingBladeServerSystem extends BaseComponentSystem implements Up
      * Note that this method is called after the OnActivatedComponent event handler
      * {@link SwingingBladeServerSystem#onSwingingBladeActivated(OnActivatedComponent, EntityRef, SwingingBladeComponent)}
      * filtering the {@link SwingingBladeComponent} gets executed.
-     * So the placedBlock entity already has the right childrenEntities and only needs the trap properties to be
-     * transferred.
+     * The rod and blade of the placedBlock entity are only created once a character comes within the
+     * materializationRadius of the trap settings, so its childrenEntities list may still be empty. Whatever it holds
+     * is kept, and only the trap properties are transferred.
      *
      * @param event
      * @param itemEntity
@@ -105,13 +185,14 @@ public class SwingingBladeServerSystem extends BaseComponentSystem implements Up
     }
 
     /**
-     * This method creates the rod and blade entities when the {@link SwingingBladeComponent} is activated. The rod and blade
-     * entities are saved in the childrenEntities list inside the {@link SwingingBladeComponent}.
-     * A similar method in the {@link SwingingBladeClientSystem} adds the mesh entity to the childrenEntities list.<br/>
+     * This method registers the swinging blade when the {@link SwingingBladeComponent} is activated. The rod and blade
+     * entities are only created once a character comes near, see {@link #materialize(EntityRef)}. Children left over
+     * from before the blade got stored are released right away.<br/>
      * Note this happens before the block is actually placed in the world i.e. before the OnBlockItemPlacedEvent handler-
      * {@link SwingingBladeServerSystem#onBlockToItem(OnBlockToItem, EntityRef, SwingingBladeComponent)} gets called.
      * So, the saved properties (amplitude, time-period, offset etc) are transferred after this, maintaining
-     * only the childrenEntities list created here.
+     * only the childrenEntities list.<br/>
+     * The blade is also added to the registry of swinging blades animated in {@link #update(float)}.
      *
      * @param event
      * @param entity
@@ -120,23 +201,57 @@ public class SwingingBladeServerSystem extends BaseComponentSystem implements Up
     @ReceiveEvent(priority = EventPriority.PRIORITY_HIGH, components = {SwingingBladeComponent.class, BlockComponent.class})
     public void onSwingingBladeActivated(OnActivatedComponent event, EntityRef entity,
                                          SwingingBladeComponent swingingBladeComponent) {
-        Prefab rodPrefab = assetManager.getAsset("AdventureAssets:rod", Prefab.class).get();
-        EntityBuilder rodEntityBuilder = entityManager.newBuilder(rodPrefab);
+        updateBatch(entity);
+        materializer.set(entity, entity.getComponent(LocationComponent.class).getWorldPosition());
+        if (!swingingBladeComponent.childrenEntities.isEmpty()) {
+            release(entity);
+        }
+    }
+
+    /**
+     * Creates the rod and blade entities of the swinging blade, and saves them in the childrenEntities list inside the
+     * {@link SwingingBladeComponent}. The {@link SwingingBladeClientSystem} adds the mesh once it sees them.
+     *
+     * @param entity the swinging blade root entity
+     */
+    private void materialize(EntityRef entity) {
+        SwingingBladeComponent swingingBladeComponent = entity.getComponent(SwingingBladeComponent.class);
+        boolean analyticHazards = trapSettingsSystem.getSettings().analyticHazards;
+
+        EntityBuilder rodEntityBuilder = entityManager.newBuilder(rodPrefab.get());
         rodEntityBuilder.setOwner(entity);
         rodEntityBuilder.setPersistent(false);
+        if (analyticHazards) {
+            rodEntityBuilder.removeComponent(RigidBodyComponent.class);
+        }
         EntityRef rod = rodEntityBuilder.build();
         swingingBladeComponent.childrenEntities.add(rod);
-        entity.saveComponent(swingingBladeComponent);
-        Location.attachChild(entity, rod, new Vector3f(0, -1, 0), new Quat4f(Quat4f.IDENTITY));
+        Location.attachChild(entity, rod, ROD_OFFSET, new Quat4f(Quat4f.IDENTITY));
 
-        Prefab bladePrefab = assetManager.getAsset("AdventureAssets:blade", Prefab.class).get();
-        EntityBuilder bladeEntityBuilder = entityManager.newBuilder(bladePrefab);
+        EntityBuilder bladeEntityBuilder = entityManager.newBuilder(bladePrefab.get());
         bladeEntityBuilder.setOwner(entity);
         bladeEntityBuilder.setPersistent(false);
+        if (analyticHazards) {
+            bladeEntityBuilder.removeComponent(RigidBodyComponent.class);
+        }
         EntityRef blade = bladeEntityBuilder.build();
         swingingBladeComponent.childrenEntities.add(blade);
+        Location.attachChild(entity, blade, BLADE_OFFSET, new Quat4f(Quat4f.IDENTITY));
+        entity.saveComponent(swingingBladeComponent);
+    }
+
+    /**
+     * Destroys the rod and blade entities of the swinging blade, leaving just its parameters.
+     *
+     * @param entity the swinging blade root entity
+     */
+    private void release(EntityRef entity) {
+        SwingingBladeComponent swingingBladeComponent = entity.getComponent(SwingingBladeComponent.class);
+        for (EntityRef child : swingingBladeComponent.childrenEntities) {
+            child.destroy();
+        }
+        swingingBladeComponent.childrenEntities.clear();
         entity.saveComponent(swingingBladeComponent);
-        Location.attachChild(entity, blade, new Vector3f(0, -7, 0), new Quat4f(Quat4f.IDENTITY));
     }
 
     @ReceiveEvent
@@ -153,10 +268,49 @@ public class SwingingBladeServerSystem extends BaseComponentSystem implements Up
         swingingBladeRoot.saveComponent(locationComponent);
     }
 
+    /**
+     * Stops animating the swinging blade while the {@link TrapSpawnQueue} has yet to configure it, and resumes once it
+     * is.
+     *
+     * @param event
+     * @param entity
+     */
+    @ReceiveEvent(components = {SwingingBladeComponent.class, LocationComponent.class, BlockComponent.class})
+    public void onSpawnStateChanged(TrapSpawnStateChangedEvent event, EntityRef entity) {
+        updateBatch(entity);
+    }
+
+    private void updateBatch(EntityRef entity) {
+        if (trapSpawnQueue.isPending(entity)) {
+            swingingBlades.remove(entity);
+        } else {
+            SwingingBladeUtilities.updateBatch(swingingBlades, entity, trapClockSystem);
+        }
+    }
+
     @Override
     public void update(float delta) {
-        for (EntityRef blade : entityManager.getEntitiesWith(SwingingBladeComponent.class, BlockComponent.class)) {
-            SwingingBladeUtilities.rotateSwingingBlade(blade, time.getGameTime());
+        if (!tick.advance(delta, trapSettingsSystem.getSettings().serverTrapTickRate)) {
+            return;
+        }
+        boolean replicate = !trapSettingsSystem.getSettings().analyticBladePose;
+        swingingBlades.setFastTrigonometry(trapSettingsSystem.getSettings().fastTrigonometry);
+        float gameTime = time.getGameTime();
+        if (characterGridSystem.isCulling()) {
+            swingingBlades.cull(characterGridSystem.getRelevantCells());
+        } else {
+            swingingBlades.uncull();
+        }
+        swingingBlades.update(gameTime, trapClockSystem.getClockTimes(gameTime));
+        if (trapSettingsSystem.getSettings().analyticHazards) {
+            swingingBlades.sweepHazards(hazards, characterGridSystem.getGrid());
+        }
+        swingingBlades.writeBack(replicate);
+        if (characterGridSystem.isMaterializing()) {
+            materializer.update(characterGridSystem.getMaterializedCells(), characterGridSystem.getRetainedCells(),
+                    materializeCallback, releaseCallback);
+        } else {
+            materializer.materializeAll(materializeCallback);
         }
     }
 }
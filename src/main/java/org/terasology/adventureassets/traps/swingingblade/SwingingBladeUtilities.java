@@ -15,24 +15,34 @@
  */
 package org.terasology.adventureassets.traps.swingingblade;
 
+import org.terasology.adventureassets.traps.TrapAnimationBatch;
+import org.terasology.adventureassets.traps.TrapClockSystem;
 import org.terasology.entitySystem.entity.EntityRef;
 import org.terasology.logic.location.LocationComponent;
-import org.terasology.math.geom.Quat4f;
 
 class SwingingBladeUtilities {
 
-    static void rotateSwingingBlade(EntityRef blade, float gameTime) {
+    static TrapAnimationBatch createBatch() {
+        return new TrapAnimationBatch(TrapAnimationBatch.Motion.PENDULUM);
+    }
+
+    /**
+     * Copies the settings of the swinging blade into the batch which animates it, adding the blade if needed.
+     * Blades which are not swinging are removed from the batch, so they are not visited every frame.
+     *
+     * @param batch the batch of swinging blades
+     * @param blade the swinging blade root entity
+     * @param clockSystem the system resolving the clock group of the blade
+     */
+    static void updateBatch(TrapAnimationBatch batch, EntityRef blade, TrapClockSystem clockSystem) {
         LocationComponent locationComponent = blade.getComponent(LocationComponent.class);
         SwingingBladeComponent swingingBladeComponent = blade.getComponent(SwingingBladeComponent.class);
-        if (locationComponent != null && swingingBladeComponent.isSwinging) {
-            float t = gameTime;
-            float timePeriod = swingingBladeComponent.timePeriod;
-            float pitch, A = swingingBladeComponent.amplitude, phi = swingingBladeComponent.offset;
-            float w = (float) (2 * Math.PI / timePeriod);
-            pitch = (float) (A * Math.cos(w * t + phi));
-            Quat4f rotation = locationComponent.getLocalRotation();
-            locationComponent.setLocalRotation(new Quat4f(rotation.getYaw(), pitch, rotation.getRoll()));
-            blade.saveComponent(locationComponent);
+        if (locationComponent == null || swingingBladeComponent == null || !swingingBladeComponent.isSwinging) {
+            batch.remove(blade);
+            return;
         }
+        batch.set(blade, swingingBladeComponent.timePeriod, swingingBladeComponent.amplitude,
+                swingingBladeComponent.offset, 1, locationComponent.getLocalRotation(),
+                locationComponent.getWorldPosition(), clockSystem.getClockIndex(swingingBladeComponent.clockGroup));
     }
 }
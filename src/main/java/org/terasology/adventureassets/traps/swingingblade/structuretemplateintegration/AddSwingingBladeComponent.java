@@ -40,5 +40,6 @@ public class AddSwingingBladeComponent implements Component {
         public float amplitude = 3.14f / 6;
         public float offset = 0f;
         public boolean isSwinging = true;
+        public String clockGroup = "";
     }
 }
@@ -17,6 +17,13 @@ package org.terasology.adventureassets.traps.swingingblade.structuretemplateinte
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.terasology.adventureassets.traps.TrapClockSystem;
+import org.terasology.adventureassets.traps.TrapMath;
+import org.terasology.adventureassets.traps.TrapSettingsSystem;
+import org.terasology.adventureassets.traps.TrapSpawnQueue;
+import org.terasology.adventureassets.traps.structuretemplateintegration.TrapTemplateCapture;
+import org.terasology.adventureassets.traps.structuretemplateintegration.TrapTemplateCaptureSystem;
+import org.terasology.adventureassets.traps.structuretemplateintegration.TrapTemplateJsonWriter;
 import org.terasology.adventureassets.traps.swingingblade.SwingingBladeComponent;
 import org.terasology.entitySystem.entity.EntityRef;
 import org.terasology.entitySystem.event.ReceiveEvent;
@@ -31,24 +38,26 @@ import org.terasology.structureTemplates.events.BuildStructureTemplateEntityEven
 import org.terasology.structureTemplates.events.SpawnTemplateEvent;
 import org.terasology.structureTemplates.events.StructureBlocksSpawnedEvent;
 import org.terasology.structureTemplates.internal.events.BuildStructureTemplateStringEvent;
-import org.terasology.structureTemplates.util.ListUtil;
 import org.terasology.structureTemplates.util.transform.BlockRegionTransform;
 import org.terasology.world.BlockEntityRegistry;
-import org.terasology.world.block.BlockComponent;
-import org.terasology.world.block.BlockManager;
-import org.terasology.world.block.family.BlockFamily;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 @RegisterSystem(RegisterMode.AUTHORITY)
-public class SwingingBladeSTServerSystem extends BaseComponentSystem {
+public class SwingingBladeSTServerSystem extends BaseComponentSystem
+        implements TrapTemplateCapture<AddSwingingBladeComponent.SwingingBladesToSpawn> {
     private static final Logger logger = LoggerFactory.getLogger(SwingingBladeSTServerSystem.class);
 
-    @In
-    BlockManager blockManager;
     @In
     BlockEntityRegistry blockEntityRegistry;
+    @In
+    TrapSpawnQueue trapSpawnQueue;
+    @In
+    TrapTemplateCaptureSystem trapTemplateCaptureSystem;
+    @In
+    TrapSettingsSystem trapSettingsSystem;
 
     @ReceiveEvent
     public void onSpawnStructure(StructureBlocksSpawnedEvent event, EntityRef entity,
@@ -65,105 +74,122 @@ public class SwingingBladeSTServerSystem extends BaseComponentSystem {
      * This method is used to retrieve the stored settings for each SwingingBlade once it is spawned.
      * This method is called only after the OnActivatedComponent for the {@link SwingingBladeComponent} has executed.<br/>
      * Note: only the properties of the Swinging Blade should be overwritten in the {@link SwingingBladeComponent},
-     * since the existing {@link SwingingBladeComponent} already has a list for childrenEntities (rod, blade and mesh).
+     * since its childrenEntities list is managed by the trap system. The rod and blade are only created once a
+     * character comes within the materializationRadius of the trap settings, so the list may well be empty here.
+     * <br/>
+     * All swinging blades are looked up before any of them is configured. The configuration itself is queued in the
+     * {@link TrapSpawnQueue}, which keeps the blades inert until it got to them.
      *
      * @param addSwingingBladeComponent
      * @param transformation
      */
     private void configureSwingingBlades(AddSwingingBladeComponent addSwingingBladeComponent, BlockRegionTransform transformation) {
-        for (AddSwingingBladeComponent.SwingingBladesToSpawn s : addSwingingBladeComponent.swingingBladesToSpawn) {
+        List<AddSwingingBladeComponent.SwingingBladesToSpawn> toSpawn = addSwingingBladeComponent.swingingBladesToSpawn;
+        List<EntityRef> swingingBlades = new ArrayList<>(toSpawn.size());
+        List<Vector3i> positions = new ArrayList<>(toSpawn.size());
+        for (AddSwingingBladeComponent.SwingingBladesToSpawn s : toSpawn) {
             Vector3i absolutePosition = transformation.transformVector3i(s.position);
+            positions.add(absolutePosition);
+            swingingBlades.add(blockEntityRegistry.getBlockEntityAt(absolutePosition));
+        }
+
+        Vector3i origin = transformation.transformVector3i(new Vector3i(0, 0, 0));
+        for (int i = 0; i < toSpawn.size(); i++) {
+            AddSwingingBladeComponent.SwingingBladesToSpawn s = toSpawn.get(i);
+            Vector3i absolutePosition = positions.get(i);
             Quat4f absoluteRotation = transformation.transformRotation(s.rotation);
-            EntityRef swingingBlade = blockEntityRegistry.getBlockEntityAt(absolutePosition);
-            SwingingBladeComponent swingingBladeComponent = swingingBlade.getComponent(SwingingBladeComponent.class);
+            String clockGroup = TrapClockSystem.scopeGroup(s.clockGroup, origin);
+            trapSpawnQueue.enqueue(swingingBlades.get(i), swingingBlade -> configureSwingingBlade(swingingBlade, s,
+                    absolutePosition, absoluteRotation, clockGroup));
+        }
+    }
+
+    /**
+     * Applies the settings of the template to the swinging blade. A component is only saved if the template actually
+     * changes it, as every save gets replicated and makes the trap systems update the blade.
+     *
+     * @param swingingBlade
+     * @param s
+     * @param absolutePosition
+     * @param absoluteRotation
+     * @param clockGroup the clock group of the template, scoped to the spawned structure
+     */
+    private void configureSwingingBlade(EntityRef swingingBlade, AddSwingingBladeComponent.SwingingBladesToSpawn s,
+                                        Vector3i absolutePosition, Quat4f absoluteRotation, String clockGroup) {
+        SwingingBladeComponent swingingBladeComponent = swingingBlade.getComponent(SwingingBladeComponent.class);
+        LocationComponent locationComponent = swingingBlade.getComponent(LocationComponent.class);
+        if (swingingBladeComponent == null || locationComponent == null) {
+            logger.warn("No swinging blade found at {} to configure", absolutePosition);
+            return;
+        }
+
+        // The rotation is saved first, so that the blade is updated with its final settings by the last save.
+        if (!TrapMath.isSameRotation(absoluteRotation, locationComponent.getWorldRotation())) {
+            locationComponent.setWorldRotation(absoluteRotation);
+            swingingBlade.saveComponent(locationComponent);
+        }
+
+        if (swingingBladeComponent.amplitude != s.amplitude
+                || swingingBladeComponent.timePeriod != s.timePeriod
+                || swingingBladeComponent.offset != s.offset
+                || swingingBladeComponent.isSwinging != s.isSwinging
+                || !Objects.equals(swingingBladeComponent.clockGroup, clockGroup)) {
             swingingBladeComponent.amplitude = s.amplitude;
             swingingBladeComponent.timePeriod = s.timePeriod;
             swingingBladeComponent.offset = s.offset;
             swingingBladeComponent.isSwinging = s.isSwinging;
+            swingingBladeComponent.clockGroup = clockGroup;
             swingingBlade.saveComponent(swingingBladeComponent);
-            LocationComponent locationComponent = swingingBlade.getComponent(LocationComponent.class);
-            locationComponent.setWorldRotation(absoluteRotation);
-            swingingBlade.addOrSaveComponent(locationComponent);
-
         }
     }
 
-    @ReceiveEvent
-    public void onBuildTemplateWithScheduledStructurePlacement(BuildStructureTemplateEntityEvent event, EntityRef entity) {
-        BlockRegionTransform transformToRelative = event.getTransformToRelative();
-        BlockFamily blockFamily = blockManager.getBlockFamily("AdventureAssets:SwingingBladeRoot");
-
-
-        List<AddSwingingBladeComponent.SwingingBladesToSpawn> swingingBladesToSpawn = new ArrayList<>();
-
-        for (Vector3i position : event.findAbsolutePositionsOf(blockFamily)) {
-            EntityRef blockEntity = blockEntityRegistry.getBlockEntityAt(position);
-            BlockComponent blockComponent = blockEntity.getComponent(BlockComponent.class);
-            SwingingBladeComponent swingingBladeComponent = blockEntity.getComponent(SwingingBladeComponent.class);
-            AddSwingingBladeComponent.SwingingBladesToSpawn swingingBladeToSpawn = new AddSwingingBladeComponent.SwingingBladesToSpawn();
-            Vector3i absolutePosition = new Vector3i(blockComponent.getPosition());
-            swingingBladeToSpawn.position = transformToRelative.transformVector3i(absolutePosition);
-            swingingBladeToSpawn.rotation = transformToRelative.transformRotation(blockEntity.getComponent(LocationComponent.class).getWorldRotation());
-            swingingBladeToSpawn.amplitude = swingingBladeComponent.amplitude;
-            swingingBladeToSpawn.timePeriod = swingingBladeComponent.timePeriod;
-            swingingBladeToSpawn.offset = swingingBladeComponent.offset;
-            swingingBladeToSpawn.isSwinging = swingingBladeComponent.isSwinging;
+    @Override
+    public void initialise() {
+        trapTemplateCaptureSystem.register("AdventureAssets:SwingingBladeRoot", this);
+    }
 
-            swingingBladesToSpawn.add(swingingBladeToSpawn);
+    /**
+     * Describes the swinging blade in template coordinates. Called by the {@link TrapTemplateCaptureSystem} for every
+     * block of the AdventureAssets:SwingingBladeRoot family in a captured template.
+     *
+     * @param blockEntity
+     * @param absolutePosition
+     * @param transformToRelative
+     * @return the entry to spawn the swinging blade again
+     */
+    @Override
+    public AddSwingingBladeComponent.SwingingBladesToSpawn capture(EntityRef blockEntity, Vector3i absolutePosition,
+                                                                   BlockRegionTransform transformToRelative) {
+        SwingingBladeComponent swingingBladeComponent = blockEntity.getComponent(SwingingBladeComponent.class);
+        LocationComponent locationComponent = blockEntity.getComponent(LocationComponent.class);
+        if (swingingBladeComponent == null || locationComponent == null) {
+            return null;
         }
+        AddSwingingBladeComponent.SwingingBladesToSpawn swingingBladeToSpawn =
+                new AddSwingingBladeComponent.SwingingBladesToSpawn();
+        swingingBladeToSpawn.position = transformToRelative.transformVector3i(absolutePosition);
+        swingingBladeToSpawn.rotation = transformToRelative.transformRotation(locationComponent.getWorldRotation());
+        swingingBladeToSpawn.amplitude = swingingBladeComponent.amplitude;
+        swingingBladeToSpawn.timePeriod = swingingBladeComponent.timePeriod;
+        swingingBladeToSpawn.offset = swingingBladeComponent.offset;
+        swingingBladeToSpawn.isSwinging = swingingBladeComponent.isSwinging;
+        swingingBladeToSpawn.clockGroup = TrapClockSystem.getTemplateGroup(swingingBladeComponent.clockGroup);
+        return swingingBladeToSpawn;
+    }
 
-        if (swingingBladesToSpawn.size() > 0) {
-            AddSwingingBladeComponent addSwingingBladeComponent = new AddSwingingBladeComponent();
-            addSwingingBladeComponent.swingingBladesToSpawn = swingingBladesToSpawn;
-            event.getTemplateEntity().addOrSaveComponent(addSwingingBladeComponent);
-        }
+    @Override
+    public void save(BuildStructureTemplateEntityEvent event,
+                     List<AddSwingingBladeComponent.SwingingBladesToSpawn> entries) {
+        AddSwingingBladeComponent addSwingingBladeComponent = new AddSwingingBladeComponent();
+        addSwingingBladeComponent.swingingBladesToSpawn = new ArrayList<>(entries);
+        event.getTemplateEntity().addOrSaveComponent(addSwingingBladeComponent);
     }
 
     @ReceiveEvent
     public void onBuildTemplateStringWithBlockRegions(BuildStructureTemplateStringEvent event, EntityRef template,
                                                       AddSwingingBladeComponent component) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("    \"AddSwingingBlade\": {\n");
-        sb.append("        \"swingingBladesToSpawn\": [\n");
-        ListUtil.visitList(component.swingingBladesToSpawn,
-                (AddSwingingBladeComponent.SwingingBladesToSpawn swingingBlade, boolean last) -> {
-                    sb.append("            {\n");
-                    sb.append("                \"position\": [");
-                    sb.append(swingingBlade.position.x);
-                    sb.append(", ");
-                    sb.append(swingingBlade.position.y);
-                    sb.append(", ");
-                    sb.append(swingingBlade.position.z);
-                    sb.append("],\n");
-                    sb.append("                \"rotation\": [");
-                    sb.append(swingingBlade.rotation.x);
-                    sb.append(", ");
-                    sb.append(swingingBlade.rotation.y);
-                    sb.append(", ");
-                    sb.append(swingingBlade.rotation.z);
-                    sb.append(", ");
-                    sb.append(swingingBlade.rotation.w);
-                    sb.append("],\n");
-                    sb.append("                \"amplitude\": ");
-                    sb.append(swingingBlade.amplitude);
-                    sb.append(",\n");
-                    sb.append("                \"timePeriod\": ");
-                    sb.append(swingingBlade.timePeriod);
-                    sb.append(",\n");
-                    sb.append("                \"offset\": ");
-                    sb.append(swingingBlade.offset);
-                    sb.append(",\n");
-                    sb.append("                \"isSwinging\": ");
-                    sb.append(swingingBlade.isSwinging);
-                    sb.append("\n");
-                    if (last) {
-                        sb.append("            }\n");
-                    } else {
-                        sb.append("            },\n");
-                    }
-                });
-        sb.append("        ]\n");
-        sb.append("    }");
-        event.addJsonForComponent(sb.toString(), AddSwingingBladeComponent.class);
+        int floatPrecision = trapSettingsSystem.getSettings().templateFloatPrecision;
+        String json = new TrapTemplateJsonWriter(floatPrecision).write(component);
+        event.addJsonForComponent(json, AddSwingingBladeComponent.class);
     }
 }
@@ -15,27 +15,37 @@
  */
 package org.terasology.adventureassets.traps.wipeout;
 
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.terasology.assets.management.AssetManager;
+import org.terasology.adventureassets.AssetHandle;
+import org.terasology.adventureassets.AssetHandleRegistry;
+import org.terasology.adventureassets.traps.TrapAnimationBatch;
+import org.terasology.adventureassets.traps.TrapClockSystem;
+import org.terasology.adventureassets.traps.TrapSettingsSystem;
 import org.terasology.engine.Time;
 import org.terasology.entitySystem.entity.EntityBuilder;
 import org.terasology.entitySystem.entity.EntityManager;
 import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeRemoveComponent;
 import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
 import org.terasology.entitySystem.event.ReceiveEvent;
 import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.entitySystem.prefab.PrefabData;
 import org.terasology.entitySystem.systems.BaseComponentSystem;
 import org.terasology.entitySystem.systems.RegisterMode;
 import org.terasology.entitySystem.systems.RegisterSystem;
 import org.terasology.entitySystem.systems.UpdateSubscriberSystem;
 import org.terasology.logic.location.Location;
+import org.terasology.logic.location.LocationComponent;
 import org.terasology.math.geom.Quat4f;
 import org.terasology.math.geom.Vector3f;
 import org.terasology.network.NetworkComponent;
 import org.terasology.registry.In;
 import org.terasology.world.block.BlockComponent;
-import org.terasology.world.block.items.OnBlockToItem;
 
 @RegisterSystem(RegisterMode.CLIENT)
 public class WipeOutClientSystem extends BaseComponentSystem implements UpdateSubscriberSystem {
@@ -45,19 +55,28 @@ public class WipeOutClientSystem extends BaseComponentSystem implements UpdateSu
     @In
     private EntityManager entityManager;
     @In
-    private AssetManager assetManager;
-    @In
     private Time time;
+    @In
+    private TrapClockSystem trapClockSystem;
+    @In
+    private TrapSettingsSystem trapSettingsSystem;
+    @In
+    private AssetHandleRegistry assetHandleRegistry;
+
+    private TrapAnimationBatch wipeOuts = WipeOutUtilities.createBatch();
+    private TLongObjectMap<EntityRef> meshesById = new TLongObjectHashMap<>();
+    private AssetHandle<Prefab, PrefabData> wipeOutMeshPrefab;
+
+    @Override
+    public void initialise() {
+        wipeOutMeshPrefab = assetHandleRegistry.register("AdventureAssets:wipeOutMesh", Prefab.class);
+    }
 
     /**
-     * This method creates the mesh entity when the {@link WipeOutComponent} is activated. The rod and blade
-     * entities are saved in the childrenEntities list inside the {@link WipeOutComponent}.
-     * A similar method in the {@link WipeOutServerSystem} adds the rod and surfboard entities to the
-     * childrenEntities list.<br/>
-     * Note this happens before the block is actually placed in the world i.e. before the OnBlockItemPlacedEvent handler-
-     * {@link WipeOutServerSystem#onBlockToItem(OnBlockToItem, EntityRef, WipeOutComponent)} gets called.
-     * So, the saved properties (amplitude, time-period, offset etc) are transferred after this, maintaining
-     * only the childrenEntities list created here.
+     * This method adds the wipe out to the registry of wipe outs animated in {@link #update(float)} when the
+     * {@link WipeOutComponent} is activated, and creates its mesh entity if the {@link WipeOutServerSystem} already
+     * created the rod and surfboard entities. The meshes are kept by this system rather than in the childrenEntities
+     * list, which is owned by the server.
      *
      * @param event
      * @param entity
@@ -65,23 +84,64 @@ public class WipeOutClientSystem extends BaseComponentSystem implements UpdateSu
      */
     @ReceiveEvent(components = {WipeOutComponent.class, BlockComponent.class})
     public void onWipeOutActivated(OnActivatedComponent event, EntityRef entity, WipeOutComponent wipeOutComponent) {
-        // So that only the relevant server entity (which gets modified by the server system already) is operated on.
-        if (!wipeOutComponent.childrenEntities.isEmpty()) {
-            Prefab wipeOutPrefab = assetManager.getAsset("AdventureAssets:wipeOutMesh", Prefab.class).get();
-            EntityBuilder wipeOutEntityBuilder = entityManager.newBuilder(wipeOutPrefab);
-            wipeOutEntityBuilder.setOwner(entity);
-            wipeOutEntityBuilder.setPersistent(false);
-            EntityRef wipeOutMesh = wipeOutEntityBuilder.build();
-            wipeOutComponent.childrenEntities.add(wipeOutMesh);
-            entity.saveComponent(wipeOutComponent);
-            Location.attachChild(entity, wipeOutMesh, new Vector3f(0, 0, 1), new Quat4f(Quat4f.IDENTITY));
+        WipeOutUtilities.updateBatch(wipeOuts, entity, trapClockSystem);
+        updateMesh(entity, wipeOutComponent);
+    }
+
+    /**
+     * Keeps the animation parameters of the wipe out up to date when its settings or its rotation are changed, e.g. by
+     * the settings screen or a structure template. This also moves it into or out of the batch when it is started or
+     * stopped. Changes made by the batch itself are ignored.<br/>
+     * The mesh follows the rod and surfboard entities, which the server only creates while a character is near.
+     *
+     * @param event
+     * @param entity
+     */
+    @ReceiveEvent(components = {WipeOutComponent.class, LocationComponent.class, BlockComponent.class})
+    public void onWipeOutChanged(OnChangedComponent event, EntityRef entity) {
+        if (!wipeOuts.isWritingBack()) {
+            WipeOutUtilities.updateBatch(wipeOuts, entity, trapClockSystem);
+            updateMesh(entity, entity.getComponent(WipeOutComponent.class));
+        }
+    }
+
+    @ReceiveEvent(components = {WipeOutComponent.class, BlockComponent.class})
+    public void onWipeOutDeactivated(BeforeDeactivateComponent event, EntityRef entity) {
+        wipeOuts.remove(entity);
+        destroyMesh(entity);
+    }
+
+    @ReceiveEvent(components = {WipeOutComponent.class, BlockComponent.class})
+    public void onWipeOutRemoved(BeforeRemoveComponent event, EntityRef entity) {
+        wipeOuts.remove(entity);
+        destroyMesh(entity);
+    }
+
+    private void updateMesh(EntityRef entity, WipeOutComponent wipeOutComponent) {
+        if (wipeOutComponent.childrenEntities.isEmpty()) {
+            destroyMesh(entity);
+        } else if (!meshesById.containsKey(entity.getId())) {
+            EntityBuilder meshEntityBuilder = entityManager.newBuilder(wipeOutMeshPrefab.get());
+            meshEntityBuilder.setOwner(entity);
+            meshEntityBuilder.setPersistent(false);
+            EntityRef mesh = meshEntityBuilder.build();
+            meshesById.put(entity.getId(), mesh);
+            Location.attachChild(entity, mesh, new Vector3f(0, 0, 1), new Quat4f(Quat4f.IDENTITY));
+        }
+    }
+
+    private void destroyMesh(EntityRef entity) {
+        EntityRef mesh = meshesById.remove(entity.getId());
+        if (mesh != null) {
+            mesh.destroy();
         }
     }
 
     @Override
     public void update(float delta) {
-        for (EntityRef wipeOut : entityManager.getEntitiesWith(WipeOutComponent.class, BlockComponent.class)) {
-            WipeOutUtilities.rotateWipeOut(wipeOut, time.getGameTime());
-        }
+        wipeOuts.setFastTrigonometry(trapSettingsSystem.getSettings().fastTrigonometry);
+        float gameTime = time.getGameTime();
+        wipeOuts.update(gameTime, trapClockSystem.getClockTimes(gameTime));
+        wipeOuts.writeBack(true);
     }
 }
@@ -54,6 +54,13 @@ public class WipeOutComponent implements Component {
     @Replicate
     public int direction = 1;
 
+    /**
+     * The name of the {@link org.terasology.adventureassets.traps.TrapClockComponent} clock group the wipe out runs on,
+     * or empty to run on the game time
+     */
+    @Replicate
+    public String clockGroup = "";
+
     /**
      * Saved rotation extracted when block turns to item
      */
@@ -18,15 +18,29 @@ package org.terasology.adventureassets.traps.wipeout;
 import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.terasology.assets.management.AssetManager;
+import org.terasology.adventureassets.AssetHandle;
+import org.terasology.adventureassets.AssetHandleRegistry;
+import org.terasology.adventureassets.traps.CharacterGridSystem;
+import org.terasology.adventureassets.traps.FixedRateTick;
+import org.terasology.adventureassets.traps.TrapAnimationBatch;
+import org.terasology.adventureassets.traps.TrapClockSystem;
+import org.terasology.adventureassets.traps.TrapHazard;
+import org.terasology.adventureassets.traps.TrapMaterializer;
+import org.terasology.adventureassets.traps.TrapSettingsSystem;
+import org.terasology.adventureassets.traps.TrapSpawnQueue;
+import org.terasology.adventureassets.traps.TrapSpawnStateChangedEvent;
 import org.terasology.engine.Time;
 import org.terasology.entitySystem.entity.EntityBuilder;
 import org.terasology.entitySystem.entity.EntityManager;
 import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeDeactivateComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.BeforeRemoveComponent;
 import org.terasology.entitySystem.entity.lifecycleEvents.OnActivatedComponent;
+import org.terasology.entitySystem.entity.lifecycleEvents.OnChangedComponent;
 import org.terasology.entitySystem.event.EventPriority;
 import org.terasology.entitySystem.event.ReceiveEvent;
 import org.terasology.entitySystem.prefab.Prefab;
+import org.terasology.entitySystem.prefab.PrefabData;
 import org.terasology.entitySystem.systems.BaseComponentSystem;
 import org.terasology.entitySystem.systems.RegisterMode;
 import org.terasology.entitySystem.systems.RegisterSystem;
@@ -36,33 +50,72 @@ import org.terasology.logic.location.Location;
 import org.terasology.logic.location.LocationComponent;
 import org.terasology.math.geom.Quat4f;
 import org.terasology.math.geom.Vector3f;
+import org.terasology.physics.components.RigidBodyComponent;
 import org.terasology.registry.In;
 import org.terasology.world.block.BlockComponent;
 import org.terasology.world.block.items.BlockItemComponent;
 import org.terasology.world.block.items.OnBlockItemPlaced;
 import org.terasology.world.block.items.OnBlockToItem;
 
+import java.util.function.Consumer;
+
 @RegisterSystem(RegisterMode.AUTHORITY)
 public class WipeOutServerSystem extends BaseComponentSystem implements UpdateSubscriberSystem {
 
     private static final Logger logger = LoggerFactory.getLogger(WipeOutServerSystem.class);
 
+    private static final Vector3f ROD_OFFSET = new Vector3f(0, 0, 3);
+    private static final Vector3f SURFBOARD_OFFSET = new Vector3f(0, 0, 7);
+
     @In
     private EntityManager entityManager;
     @In
-    private AssetManager assetManager;
-    @In
     private InventoryManager inventoryManager;
     @In
     private Time time;
+    @In
+    private TrapClockSystem trapClockSystem;
+    @In
+    private CharacterGridSystem characterGridSystem;
+    @In
+    private TrapSettingsSystem trapSettingsSystem;
+    @In
+    private TrapSpawnQueue trapSpawnQueue;
+    @In
+    private AssetHandleRegistry assetHandleRegistry;
+
+    private TrapAnimationBatch wipeOuts = WipeOutUtilities.createBatch();
+    private TrapMaterializer materializer = new TrapMaterializer();
+    private final Consumer<EntityRef> materializeCallback = this::materialize;
+    private final Consumer<EntityRef> releaseCallback = this::release;
+    private TrapHazard[] hazards;
+    private AssetHandle<Prefab, PrefabData> rodPrefab;
+    private AssetHandle<Prefab, PrefabData> surfboardPrefab;
+    private FixedRateTick tick = new FixedRateTick();
+
+    @Override
+    public void initialise() {
+        rodPrefab = assetHandleRegistry.register("AdventureAssets:wipeOutRod", Prefab.class);
+        surfboardPrefab = assetHandleRegistry.register("AdventureAssets:wipeOutSurfboard", Prefab.class);
+    }
+
+    /**
+     * The hazards are read from the prefabs once all systems, including the {@link AssetHandleRegistry}, are ready.
+     */
+    @Override
+    public void postBegin() {
+        hazards = new TrapHazard[]{TrapHazard.fromPrefab(rodPrefab.get(), ROD_OFFSET),
+                TrapHazard.fromPrefab(surfboardPrefab.get(), SURFBOARD_OFFSET)};
+    }
 
     /**
      * This method transfers the saved block properties from the item to the block. <br/>
      * Note that this method is called after the OnActivatedComponent event handler
      * {@link WipeOutServerSystem#onWipeOutActivated(OnActivatedComponent, EntityRef, WipeOutComponent)}
      * filtering the {@link WipeOutComponent} gets executed.
-     * So the placedBlock entity already has the right childrenEntities and only needs the trap properties to be
-     * transferred.
+     * The rod and surfboard of the placedBlock entity are only created once a character comes within the
+     * materializationRadius of the trap settings, so its childrenEntities list may still be empty. Whatever it holds
+     * is kept, and only the trap properties are transferred.
      *
      * @param event
      * @param itemEntity
@@ -99,13 +152,14 @@ public class WipeOutServerSystem extends BaseComponentSystem implements UpdateSu
     }
 
     /**
-     * This method creates the rod and surfboard entities when the {@link WipeOutComponent} is activated. The rod and
-     * surfboard entities are saved in the childrenEntities list inside the {@link WipeOutComponent}.
-     * A similar method in the {@link WipeOutClientSystem} adds the mesh entity to the childrenEntities list.<br/>
+     * This method registers the wipe out when the {@link WipeOutComponent} is activated. The rod and surfboard
+     * entities are only created once a character comes near, see {@link #materialize(EntityRef)}. Children left over
+     * from before the wipe out got stored are released right away.<br/>
      * Note this happens before the block is actually placed in the world i.e. before the OnBlockItemPlacedEvent handler-
      * {@link WipeOutServerSystem#onBlockToItem(OnBlockToItem, EntityRef, WipeOutComponent)} gets called.
      * So, the saved properties (offset, time-period etc) are transferred after this, maintaining
-     * only the childrenEntities list created here.
+     * only the childrenEntities list.<br/>
+     * The wipe out is also added to the registry of wipe outs animated in {@link #update(float)}.
      *
      * @param event
      * @param entity
@@ -114,23 +168,90 @@ public class WipeOutServerSystem extends BaseComponentSystem implements UpdateSu
     @ReceiveEvent(priority = EventPriority.PRIORITY_HIGH, components = {WipeOutComponent.class, BlockComponent.class})
     public void onWipeOutActivated(OnActivatedComponent event, EntityRef entity,
                                    WipeOutComponent wipeOutComponent) {
-        Prefab rodPrefab = assetManager.getAsset("AdventureAssets:wipeOutRod", Prefab.class).get();
-        EntityBuilder rodEntityBuilder = entityManager.newBuilder(rodPrefab);
+        updateBatch(entity);
+        materializer.set(entity, entity.getComponent(LocationComponent.class).getWorldPosition());
+        if (!wipeOutComponent.childrenEntities.isEmpty()) {
+            release(entity);
+        }
+    }
+
+    /**
+     * Creates the rod and surfboard entities of the wipe out, and saves them in the childrenEntities list inside the
+     * {@link WipeOutComponent}. The {@link WipeOutClientSystem} adds the mesh once it sees them.
+     *
+     * @param entity the wipe out root entity
+     */
+    private void materialize(EntityRef entity) {
+        WipeOutComponent wipeOutComponent = entity.getComponent(WipeOutComponent.class);
+        boolean analyticHazards = trapSettingsSystem.getSettings().analyticHazards;
+
+        EntityBuilder rodEntityBuilder = entityManager.newBuilder(rodPrefab.get());
         rodEntityBuilder.setOwner(entity);
         rodEntityBuilder.setPersistent(false);
+        if (analyticHazards) {
+            rodEntityBuilder.removeComponent(RigidBodyComponent.class);
+        }
         EntityRef rod = rodEntityBuilder.build();
         wipeOutComponent.childrenEntities.add(rod);
-        entity.saveComponent(wipeOutComponent);
-        Location.attachChild(entity, rod, new Vector3f(0, 0, 3), new Quat4f(Quat4f.IDENTITY));
+        Location.attachChild(entity, rod, ROD_OFFSET, new Quat4f(Quat4f.IDENTITY));
 
-        Prefab surfboardPrefab = assetManager.getAsset("AdventureAssets:wipeOutSurfboard", Prefab.class).get();
-        EntityBuilder surfboardEntityBuilder = entityManager.newBuilder(surfboardPrefab);
+        EntityBuilder surfboardEntityBuilder = entityManager.newBuilder(surfboardPrefab.get());
         surfboardEntityBuilder.setOwner(entity);
         surfboardEntityBuilder.setPersistent(false);
+        if (analyticHazards) {
+            surfboardEntityBuilder.removeComponent(RigidBodyComponent.class);
+        }
         EntityRef surfboard = surfboardEntityBuilder.build();
         wipeOutComponent.childrenEntities.add(surfboard);
+        Location.attachChild(entity, surfboard, SURFBOARD_OFFSET, new Quat4f(Quat4f.IDENTITY));
+        entity.saveComponent(wipeOutComponent);
+    }
+
+    /**
+     * Destroys the rod and surfboard entities of the wipe out, leaving just its parameters.
+     *
+     * @param entity the wipe out root entity
+     */
+    private void release(EntityRef entity) {
+        WipeOutComponent wipeOutComponent = entity.getComponent(WipeOutComponent.class);
+        for (EntityRef child : wipeOutComponent.childrenEntities) {
+            child.destroy();
+        }
+        wipeOutComponent.childrenEntities.clear();
         entity.saveComponent(wipeOutComponent);
-        Location.attachChild(entity, surfboard, new Vector3f(0, 0, 7), new Quat4f(Quat4f.IDENTITY));
+    }
+
+    /**
+     * Keeps the animation parameters of the wipe out up to date when its settings or its rotation are changed, e.g. by
+     * the settings screen or a structure template. This also moves it into or out of the batch when it is started or
+     * stopped. Changes made by the batch itself are ignored.
+     *
+     * @param event
+     * @param entity
+     */
+    @ReceiveEvent(components = {WipeOutComponent.class, LocationComponent.class, BlockComponent.class})
+    public void onWipeOutChanged(OnChangedComponent event, EntityRef entity) {
+        if (!wipeOuts.isWritingBack()) {
+            updateBatch(entity);
+        }
+    }
+
+    @ReceiveEvent(components = {WipeOutComponent.class, BlockComponent.class})
+    public void onWipeOutDeactivated(BeforeDeactivateComponent event, EntityRef entity) {
+        wipeOuts.remove(entity);
+        materializer.remove(entity);
+        // The children are not persistent, so they are only dropped from the component which is about to be stored.
+        WipeOutComponent wipeOutComponent = entity.getComponent(WipeOutComponent.class);
+        for (EntityRef child : wipeOutComponent.childrenEntities) {
+            child.destroy();
+        }
+        wipeOutComponent.childrenEntities.clear();
+    }
+
+    @ReceiveEvent(components = {WipeOutComponent.class, BlockComponent.class})
+    public void onWipeOutRemoved(BeforeRemoveComponent event, EntityRef entity) {
+        wipeOuts.remove(entity);
+        materializer.remove(entity);
     }
 
     @ReceiveEvent
@@ -147,10 +268,47 @@ public class WipeOutServerSystem extends BaseComponentSystem implements UpdateSu
         wipeOutRoot.saveComponent(locationComponent);
     }
 
+    /**
+     * Stops animating the wipe out while the {@link TrapSpawnQueue} has yet to configure it, and resumes once it is.
+     *
+     * @param event
+     * @param entity
+     */
+    @ReceiveEvent(components = {WipeOutComponent.class, LocationComponent.class, BlockComponent.class})
+    public void onSpawnStateChanged(TrapSpawnStateChangedEvent event, EntityRef entity) {
+        updateBatch(entity);
+    }
+
+    private void updateBatch(EntityRef entity) {
+        if (trapSpawnQueue.isPending(entity)) {
+            wipeOuts.remove(entity);
+        } else {
+            WipeOutUtilities.updateBatch(wipeOuts, entity, trapClockSystem);
+        }
+    }
+
     @Override
     public void update(float delta) {
-        for (EntityRef wipeOut : entityManager.getEntitiesWith(WipeOutComponent.class, BlockComponent.class)) {
-            WipeOutUtilities.rotateWipeOut(wipeOut, time.getGameTime());
+        if (!tick.advance(delta, trapSettingsSystem.getSettings().serverTrapTickRate)) {
+            return;
+        }
+        wipeOuts.setFastTrigonometry(trapSettingsSystem.getSettings().fastTrigonometry);
+        float gameTime = time.getGameTime();
+        if (characterGridSystem.isCulling()) {
+            wipeOuts.cull(characterGridSystem.getRelevantCells());
+        } else {
+            wipeOuts.uncull();
+        }
+        wipeOuts.update(gameTime, trapClockSystem.getClockTimes(gameTime));
+        if (trapSettingsSystem.getSettings().analyticHazards) {
+            wipeOuts.sweepHazards(hazards, characterGridSystem.getGrid());
+        }
+        wipeOuts.writeBack(true);
+        if (characterGridSystem.isMaterializing()) {
+            materializer.update(characterGridSystem.getMaterializedCells(), characterGridSystem.getRetainedCells(),
+                    materializeCallback, releaseCallback);
+        } else {
+            materializer.materializeAll(materializeCallback);
         }
     }
 }
@@ -15,23 +15,36 @@
  */
 package org.terasology.adventureassets.traps.wipeout;
 
+import org.terasology.adventureassets.traps.TrapAnimationBatch;
+import org.terasology.adventureassets.traps.TrapClockSystem;
 import org.terasology.entitySystem.entity.EntityRef;
 import org.terasology.logic.location.LocationComponent;
-import org.terasology.math.geom.Quat4f;
 
 class WipeOutUtilities {
 
-    static void rotateWipeOut(EntityRef wipeOut, float gameTime) {
+    static TrapAnimationBatch createBatch() {
+        return new TrapAnimationBatch(TrapAnimationBatch.Motion.ROTOR);
+    }
+
+    /**
+     * Copies the settings of the wipe out into the batch which animates it, adding the wipe out if needed.
+     * Wipe outs which are not rotating are removed from the batch, so they are not visited every frame.
+     * The offset of a wipe out is a time, which is converted to the phase of the rotation here.
+     *
+     * @param batch the batch of wipe outs
+     * @param wipeOut the wipe out root entity
+     * @param clockSystem the system resolving the clock group of the wipe out
+     */
+    static void updateBatch(TrapAnimationBatch batch, EntityRef wipeOut, TrapClockSystem clockSystem) {
         LocationComponent locationComponent = wipeOut.getComponent(LocationComponent.class);
         WipeOutComponent wipeOutComponent = wipeOut.getComponent(WipeOutComponent.class);
-        if (locationComponent != null && wipeOutComponent.isRotating) {
-            float t = gameTime;
-            float timePeriod = wipeOutComponent.timePeriod;
-            float offset = wipeOutComponent.offset;
-            float angle = (float) (((t + offset) % timePeriod) * (2 * Math.PI / timePeriod)) * wipeOutComponent.direction;
-            Quat4f rotation = locationComponent.getLocalRotation();
-            locationComponent.setLocalRotation(new Quat4f(angle, rotation.getPitch(), rotation.getRoll()));
-            wipeOut.saveComponent(locationComponent);
+        if (locationComponent == null || wipeOutComponent == null || !wipeOutComponent.isRotating) {
+            batch.remove(wipeOut);
+            return;
         }
+        float phase = (float) ((wipeOutComponent.offset % wipeOutComponent.timePeriod) * (2 * Math.PI / wipeOutComponent.timePeriod));
+        batch.set(wipeOut, wipeOutComponent.timePeriod, 0, phase, wipeOutComponent.direction,
+                locationComponent.getLocalRotation(), locationComponent.getWorldPosition(),
+                clockSystem.getClockIndex(wipeOutComponent.clockGroup));
     }
 }
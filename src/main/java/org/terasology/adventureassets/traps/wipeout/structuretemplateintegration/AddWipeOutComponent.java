@@ -41,5 +41,6 @@ public class AddWipeOutComponent implements Component {
         public int direction = 1;
         public float offset = 0f;
         public boolean isRotating = true;
+        public String clockGroup = "";
     }
 }
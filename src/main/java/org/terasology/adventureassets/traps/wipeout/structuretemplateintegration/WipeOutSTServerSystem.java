@@ -17,6 +17,13 @@ package org.terasology.adventureassets.traps.wipeout.structuretemplateintegratio
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.terasology.adventureassets.traps.TrapClockSystem;
+import org.terasology.adventureassets.traps.TrapMath;
+import org.terasology.adventureassets.traps.TrapSettingsSystem;
+import org.terasology.adventureassets.traps.TrapSpawnQueue;
+import org.terasology.adventureassets.traps.structuretemplateintegration.TrapTemplateCapture;
+import org.terasology.adventureassets.traps.structuretemplateintegration.TrapTemplateCaptureSystem;
+import org.terasology.adventureassets.traps.structuretemplateintegration.TrapTemplateJsonWriter;
 import org.terasology.adventureassets.traps.wipeout.WipeOutComponent;
 import org.terasology.entitySystem.entity.EntityRef;
 import org.terasology.entitySystem.event.ReceiveEvent;
@@ -31,24 +38,26 @@ import org.terasology.structureTemplates.events.BuildStructureTemplateEntityEven
 import org.terasology.structureTemplates.events.SpawnTemplateEvent;
 import org.terasology.structureTemplates.events.StructureBlocksSpawnedEvent;
 import org.terasology.structureTemplates.internal.events.BuildStructureTemplateStringEvent;
-import org.terasology.structureTemplates.util.ListUtil;
 import org.terasology.structureTemplates.util.transform.BlockRegionTransform;
 import org.terasology.world.BlockEntityRegistry;
-import org.terasology.world.block.BlockComponent;
-import org.terasology.world.block.BlockManager;
-import org.terasology.world.block.family.BlockFamily;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 @RegisterSystem(RegisterMode.AUTHORITY)
-public class WipeOutSTServerSystem extends BaseComponentSystem {
+public class WipeOutSTServerSystem extends BaseComponentSystem
+        implements TrapTemplateCapture<AddWipeOutComponent.WipeOutsToSpawn> {
     private static final Logger logger = LoggerFactory.getLogger(WipeOutSTServerSystem.class);
 
-    @In
-    BlockManager blockManager;
     @In
     BlockEntityRegistry blockEntityRegistry;
+    @In
+    TrapSpawnQueue trapSpawnQueue;
+    @In
+    TrapTemplateCaptureSystem trapTemplateCaptureSystem;
+    @In
+    TrapSettingsSystem trapSettingsSystem;
 
     @ReceiveEvent
     public void onSpawnStructure(StructureBlocksSpawnedEvent event, EntityRef entity,
@@ -65,106 +74,120 @@ public class WipeOutSTServerSystem extends BaseComponentSystem {
      * This method is used to retrieve the stored settings for each WipeOut once it is spawned.
      * This method is called only after the OnActivatedComponent for the {@link WipeOutComponent} has executed.<br/>
      * Note: only the properties of the Wipe Out should be overwritten in the {@link WipeOutComponent},
-     * since the existing {@link WipeOutComponent} already has a list for childrenEntities (rod, blade and mesh).
+     * since its childrenEntities list is managed by the trap system. The rod and surfboard are only created once a
+     * character comes within the materializationRadius of the trap settings, so the list may well be empty here.<br/>
+     * All wipe outs are looked up before any of them is configured. The configuration itself is queued in the
+     * {@link TrapSpawnQueue}, which keeps the wipe outs inert until it got to them.
      *
      * @param addWipeOutComponent
      * @param transformation
      */
     private void configureWipeOut(AddWipeOutComponent addWipeOutComponent, BlockRegionTransform transformation) {
-        for (AddWipeOutComponent.WipeOutsToSpawn w : addWipeOutComponent.wipeOutsToSpawn) {
+        List<AddWipeOutComponent.WipeOutsToSpawn> toSpawn = addWipeOutComponent.wipeOutsToSpawn;
+        List<EntityRef> wipeOuts = new ArrayList<>(toSpawn.size());
+        List<Vector3i> positions = new ArrayList<>(toSpawn.size());
+        for (AddWipeOutComponent.WipeOutsToSpawn w : toSpawn) {
             Vector3i absolutePosition = transformation.transformVector3i(w.position);
+            positions.add(absolutePosition);
+            wipeOuts.add(blockEntityRegistry.getBlockEntityAt(absolutePosition));
+        }
+
+        Vector3i origin = transformation.transformVector3i(new Vector3i(0, 0, 0));
+        for (int i = 0; i < toSpawn.size(); i++) {
+            AddWipeOutComponent.WipeOutsToSpawn w = toSpawn.get(i);
+            Vector3i absolutePosition = positions.get(i);
             Quat4f absoluteRotation = transformation.transformRotation(w.rotation);
-            EntityRef wipeOut = blockEntityRegistry.getBlockEntityAt(absolutePosition);
-            WipeOutComponent wipeOutComponent = wipeOut.getComponent(WipeOutComponent.class);
+            String clockGroup = TrapClockSystem.scopeGroup(w.clockGroup, origin);
+            trapSpawnQueue.enqueue(wipeOuts.get(i), wipeOut -> configureWipeOut(wipeOut, w, absolutePosition,
+                    absoluteRotation, clockGroup));
+        }
+    }
+
+    /**
+     * Applies the settings of the template to the wipe out. A component is only saved if the template actually
+     * changes it.
+     *
+     * @param wipeOut
+     * @param w
+     * @param absolutePosition
+     * @param absoluteRotation
+     * @param clockGroup the clock group of the template, scoped to the spawned structure
+     */
+    private void configureWipeOut(EntityRef wipeOut, AddWipeOutComponent.WipeOutsToSpawn w, Vector3i absolutePosition,
+                                  Quat4f absoluteRotation, String clockGroup) {
+        WipeOutComponent wipeOutComponent = wipeOut.getComponent(WipeOutComponent.class);
+        LocationComponent locationComponent = wipeOut.getComponent(LocationComponent.class);
+        if (wipeOutComponent == null || locationComponent == null) {
+            logger.warn("No wipe out found at {} to configure", absolutePosition);
+            return;
+        }
+
+        // The rotation is saved first, so that the wipe out is updated with its final settings by the last save.
+        if (!TrapMath.isSameRotation(absoluteRotation, locationComponent.getWorldRotation())) {
+            locationComponent.setWorldRotation(absoluteRotation);
+            wipeOut.saveComponent(locationComponent);
+        }
+
+        if (wipeOutComponent.direction != w.direction
+                || wipeOutComponent.timePeriod != w.timePeriod
+                || wipeOutComponent.offset != w.offset
+                || wipeOutComponent.isRotating != w.isRotating
+                || !Objects.equals(wipeOutComponent.clockGroup, clockGroup)) {
             wipeOutComponent.direction = w.direction;
             wipeOutComponent.timePeriod = w.timePeriod;
             wipeOutComponent.offset = w.offset;
             wipeOutComponent.isRotating = w.isRotating;
-
+            wipeOutComponent.clockGroup = clockGroup;
             wipeOut.saveComponent(wipeOutComponent);
-            LocationComponent locationComponent = wipeOut.getComponent(LocationComponent.class);
-            locationComponent.setWorldRotation(absoluteRotation);
-            wipeOut.addOrSaveComponent(locationComponent);
-
         }
     }
 
-    @ReceiveEvent
-    public void onBuildTemplateWithScheduledStructurePlacement(BuildStructureTemplateEntityEvent event, EntityRef entity) {
-        BlockRegionTransform transformToRelative = event.getTransformToRelative();
-        BlockFamily blockFamily = blockManager.getBlockFamily("AdventureAssets:WipeOutRoot");
-
-
-        List<AddWipeOutComponent.WipeOutsToSpawn> wipeOutsToSpawns = new ArrayList<>();
-
-        for (Vector3i position : event.findAbsolutePositionsOf(blockFamily)) {
-            EntityRef blockEntity = blockEntityRegistry.getBlockEntityAt(position);
-            BlockComponent blockComponent = blockEntity.getComponent(BlockComponent.class);
-            WipeOutComponent wipeOutComponent = blockEntity.getComponent(WipeOutComponent.class);
-            AddWipeOutComponent.WipeOutsToSpawn wipeOutToSpawn = new AddWipeOutComponent.WipeOutsToSpawn();
-            Vector3i absolutePosition = new Vector3i(blockComponent.getPosition());
-            wipeOutToSpawn.position = transformToRelative.transformVector3i(absolutePosition);
-            wipeOutToSpawn.rotation = transformToRelative.transformRotation(blockEntity.getComponent(LocationComponent.class).getWorldRotation());
-            wipeOutToSpawn.direction = wipeOutComponent.direction;
-            wipeOutToSpawn.timePeriod = wipeOutComponent.timePeriod;
-            wipeOutToSpawn.offset = wipeOutComponent.offset;
-            wipeOutToSpawn.isRotating = wipeOutComponent.isRotating;
+    @Override
+    public void initialise() {
+        trapTemplateCaptureSystem.register("AdventureAssets:WipeOutRoot", this);
+    }
 
-            wipeOutsToSpawns.add(wipeOutToSpawn);
+    /**
+     * Describes the wipe out in template coordinates. Called by the {@link TrapTemplateCaptureSystem} for every
+     * block of the AdventureAssets:WipeOutRoot family in a captured template.
+     *
+     * @param blockEntity
+     * @param absolutePosition
+     * @param transformToRelative
+     * @return the entry to spawn the wipe out again
+     */
+    @Override
+    public AddWipeOutComponent.WipeOutsToSpawn capture(EntityRef blockEntity, Vector3i absolutePosition,
+                                                       BlockRegionTransform transformToRelative) {
+        WipeOutComponent wipeOutComponent = blockEntity.getComponent(WipeOutComponent.class);
+        LocationComponent locationComponent = blockEntity.getComponent(LocationComponent.class);
+        if (wipeOutComponent == null || locationComponent == null) {
+            return null;
         }
+        AddWipeOutComponent.WipeOutsToSpawn wipeOutToSpawn = new AddWipeOutComponent.WipeOutsToSpawn();
+        wipeOutToSpawn.position = transformToRelative.transformVector3i(absolutePosition);
+        wipeOutToSpawn.rotation = transformToRelative.transformRotation(locationComponent.getWorldRotation());
+        wipeOutToSpawn.direction = wipeOutComponent.direction;
+        wipeOutToSpawn.timePeriod = wipeOutComponent.timePeriod;
+        wipeOutToSpawn.offset = wipeOutComponent.offset;
+        wipeOutToSpawn.isRotating = wipeOutComponent.isRotating;
+        wipeOutToSpawn.clockGroup = TrapClockSystem.getTemplateGroup(wipeOutComponent.clockGroup);
+        return wipeOutToSpawn;
+    }
 
-        if (wipeOutsToSpawns.size() > 0) {
-            AddWipeOutComponent addWipeOutComponent = new AddWipeOutComponent();
-            addWipeOutComponent.wipeOutsToSpawn = wipeOutsToSpawns;
-            event.getTemplateEntity().addOrSaveComponent(addWipeOutComponent);
-        }
+    @Override
+    public void save(BuildStructureTemplateEntityEvent event,
+                     List<AddWipeOutComponent.WipeOutsToSpawn> entries) {
+        AddWipeOutComponent addWipeOutComponent = new AddWipeOutComponent();
+        addWipeOutComponent.wipeOutsToSpawn = new ArrayList<>(entries);
+        event.getTemplateEntity().addOrSaveComponent(addWipeOutComponent);
     }
 
     @ReceiveEvent
     public void onBuildTemplateStringWithBlockRegions(BuildStructureTemplateStringEvent event, EntityRef template,
                                                       AddWipeOutComponent component) {
-        StringBuilder sb = new StringBuilder();
-        sb.append("    \"AddWipeOut\": {\n");
-        sb.append("        \"WipeOutsToSpawn\": [\n");
-        ListUtil.visitList(component.wipeOutsToSpawn,
-                (AddWipeOutComponent.WipeOutsToSpawn wipeOut, boolean last) -> {
-                    sb.append("            {\n");
-                    sb.append("                \"position\": [");
-                    sb.append(wipeOut.position.x);
-                    sb.append(", ");
-                    sb.append(wipeOut.position.y);
-                    sb.append(", ");
-                    sb.append(wipeOut.position.z);
-                    sb.append("],\n");
-                    sb.append("                \"rotation\": [");
-                    sb.append(wipeOut.rotation.x);
-                    sb.append(", ");
-                    sb.append(wipeOut.rotation.y);
-                    sb.append(", ");
-                    sb.append(wipeOut.rotation.z);
-                    sb.append(", ");
-                    sb.append(wipeOut.rotation.w);
-                    sb.append("],\n");
-                    sb.append("                \"direction\": ");
-                    sb.append(wipeOut.direction);
-                    sb.append(",\n");
-                    sb.append("                \"timePeriod\": ");
-                    sb.append(wipeOut.timePeriod);
-                    sb.append(",\n");
-                    sb.append("                \"offset\": ");
-                    sb.append(wipeOut.offset);
-                    sb.append(",\n");
-                    sb.append("                \"isRotating\": ");
-                    sb.append(wipeOut.isRotating);
-                    sb.append("\n");
-                    if (last) {
-                        sb.append("            }\n");
-                    } else {
-                        sb.append("            },\n");
-                    }
-                });
-        sb.append("        ]\n");
-        sb.append("    }");
-        event.addJsonForComponent(sb.toString(), AddWipeOutComponent.class);
+        int floatPrecision = trapSettingsSystem.getSettings().templateFloatPrecision;
+        String json = new TrapTemplateJsonWriter(floatPrecision).write(component);
+        event.addJsonForComponent(json, AddWipeOutComponent.class);
     }
 }
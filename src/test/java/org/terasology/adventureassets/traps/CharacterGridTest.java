@@ -0,0 +1,55 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+import org.junit.Test;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.math.geom.Vector3f;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class CharacterGridTest {
+
+    @Test
+    public void testAnyWithinNearSegment() {
+        CharacterGrid grid = new CharacterGrid();
+        grid.set(mockCharacter(1), new Vector3f(20, 0, 1.5f), 0.3f, 0.9f, true);
+        assertTrue(grid.isAnyWithin(new Vector3f(0, 0, 0), new Vector3f(1, 0, 0), 30, 2));
+        assertFalse(grid.isAnyWithin(new Vector3f(0, 0, 0), new Vector3f(1, 0, 0), 30, 1));
+        assertFalse(grid.isAnyWithin(new Vector3f(0, 0, 0), new Vector3f(1, 0, 0), 10, 2));
+    }
+
+    @Test
+    public void testAnyWithinIgnoresCharactersOutsideTheBox() {
+        CharacterGrid grid = new CharacterGrid();
+        grid.set(mockCharacter(1), new Vector3f(5, 0, 10), 0.3f, 0.9f, true);
+        for (int i = 0; i < 1000; i++) {
+            grid.set(mockCharacter(i + 2), new Vector3f(500 + i, 0, 0), 0.3f, 0.9f, false);
+        }
+        assertFalse(grid.isAnyWithin(new Vector3f(0, 0, 0), new Vector3f(1, 0, 0), 30, 2));
+        assertTrue(grid.isAnyWithin(new Vector3f(0, 0, 0), new Vector3f(1, 0, 0), 30, 10));
+        assertTrue(grid.isAnyWithin(new Vector3f(700, 0, 0), new Vector3f(0, 0, 0), 0, 0.5f));
+    }
+
+    private static EntityRef mockCharacter(long id) {
+        EntityRef character = mock(EntityRef.class);
+        when(character.getId()).thenReturn(id);
+        return character;
+    }
+}
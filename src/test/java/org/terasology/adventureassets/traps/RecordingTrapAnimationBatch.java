@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.math.geom.Quat4f;
+import org.terasology.math.geom.Vector3f;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * A {@link TrapAnimationBatch} which keeps the poses it writes back in arrays instead of {@link
+ * org.terasology.logic.location.LocationComponent}s, so the batch can be measured without an entity system.
+ */
+class RecordingTrapAnimationBatch extends TrapAnimationBatch {
+    // grown by the constructor of the batch, so it must not be initialized here
+    private float[] rotations;
+    private int writes;
+
+    RecordingTrapAnimationBatch(Motion motion) {
+        super(motion);
+    }
+
+    /**
+     * Creates a batch of traps spread over a square of the given side length, with the periods, amplitudes, offsets
+     * and rotations level designers typically use.
+     *
+     * @param motion the motion of the traps
+     * @param count the number of traps
+     * @param spacing the distance (in blocks) between neighbouring traps
+     * @return the batch
+     */
+    static RecordingTrapAnimationBatch populate(Motion motion, int count, float spacing) {
+        RecordingTrapAnimationBatch batch = new RecordingTrapAnimationBatch(motion);
+        Random random = new Random(count);
+        int side = (int) Math.ceil(Math.sqrt(count));
+        Vector3f position = new Vector3f();
+        for (int i = 0; i < count; i++) {
+            EntityRef entity = mock(EntityRef.class);
+            when(entity.getId()).thenReturn(i + 1L);
+            float yaw = (float) (random.nextInt(4) * Math.PI / 2);
+            position.set((i % side) * spacing, 0, (i / side) * spacing);
+            batch.set(entity, 1 + 3 * random.nextFloat(), (float) (random.nextFloat() * Math.PI / 2),
+                    (float) (random.nextFloat() * 2 * Math.PI), random.nextBoolean() ? 1 : -1,
+                    new Quat4f(yaw, 0, 0), position, TrapClockSystem.NO_CLOCK);
+        }
+        return batch;
+    }
+
+    @Override
+    protected boolean writePose(int slot, Quat4f rotation, boolean replicate) {
+        rotations[4 * slot] = rotation.x;
+        rotations[4 * slot + 1] = rotation.y;
+        rotations[4 * slot + 2] = rotation.z;
+        rotations[4 * slot + 3] = rotation.w;
+        writes++;
+        return true;
+    }
+
+    @Override
+    protected void move(int from, int to) {
+        super.move(from, to);
+        System.arraycopy(rotations, 4 * from, rotations, 4 * to, 4);
+    }
+
+    @Override
+    protected void grow(int capacity) {
+        super.grow(capacity);
+        rotations = rotations == null ? new float[4 * capacity] : Arrays.copyOf(rotations, 4 * capacity);
+    }
+
+    /**
+     * @return the last rotation written for the trap in the given slot
+     */
+    Quat4f getRotation(int slot) {
+        return new Quat4f(rotations[4 * slot], rotations[4 * slot + 1], rotations[4 * slot + 2],
+                rotations[4 * slot + 3]);
+    }
+
+    /**
+     * @return the number of poses written back so far
+     */
+    int getWrites() {
+        return writes;
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+import org.terasology.adventureassets.traps.TrapAnimationBatch.Motion;
+
+/**
+ * Measures the cost per trap of one tick of the {@link TrapAnimationBatch}, for 1k, 10k and 100k traps of each
+ * motion. The poses are written to arrays, see {@link RecordingTrapAnimationBatch}, so the numbers leave out the
+ * entity system and only show the cost of the batch itself.
+ * <p>
+ * This is not run as part of the tests, run its main method instead.
+ */
+public final class TrapAnimationBatchBenchmark {
+    private static final int[] TRAP_COUNTS = {1000, 10000, 100000};
+    private static final float TICK = 1f / 60;
+    private static final long WARM_UP_NANOS = 2_000_000_000L;
+    private static final long MEASURED_NANOS = 3_000_000_000L;
+
+    private TrapAnimationBatchBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        System.out.println("motion      traps   update (ns/trap)   update + writeBack (ns/trap)");
+        for (Motion motion : Motion.values()) {
+            for (int count : TRAP_COUNTS) {
+                RecordingTrapAnimationBatch batch = RecordingTrapAnimationBatch.populate(motion, count, 4);
+                float[] clockTimes = new float[0];
+                run(batch, clockTimes, false, WARM_UP_NANOS);
+                double update = run(batch, clockTimes, false, MEASURED_NANOS);
+                run(batch, clockTimes, true, WARM_UP_NANOS);
+                double updateAndWriteBack = run(batch, clockTimes, true, MEASURED_NANOS);
+                System.out.printf("%-8s %8d   %16.2f   %28.2f%n", motion, count, update, updateAndWriteBack);
+            }
+        }
+    }
+
+    /**
+     * Ticks the batch for about the given time.
+     *
+     * @return the average time (in nanoseconds) per trap and tick
+     */
+    private static double run(RecordingTrapAnimationBatch batch, float[] clockTimes, boolean writeBack,
+                              long duration) {
+        float gameTime = 0;
+        long ticks = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            for (int i = 0; i < 10; i++) {
+                gameTime += TICK;
+                batch.update(gameTime, clockTimes);
+                if (writeBack) {
+                    batch.writeBack(false);
+                }
+            }
+            ticks += 10;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < duration);
+        return (double) elapsed / ticks / batch.size();
+    }
+}
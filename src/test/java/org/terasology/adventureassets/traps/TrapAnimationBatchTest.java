@@ -0,0 +1,177 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+import com.sun.management.ThreadMXBean;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
+import org.junit.Test;
+import org.terasology.adventureassets.traps.TrapAnimationBatch.Motion;
+import org.terasology.entitySystem.entity.EntityRef;
+import org.terasology.logic.characters.AliveCharacterComponent;
+import org.terasology.logic.characters.CharacterImpulseEvent;
+import org.terasology.math.geom.Quat4f;
+import org.terasology.math.geom.Vector3f;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class TrapAnimationBatchTest {
+    private static final float[] NO_CLOCK_TIMES = new float[0];
+    private static final float TICK = 1f / 20;
+    private static final int WARM_UP_TICKS = 20000;
+    private static final int MEASURED_TICKS = 1000;
+
+    @Test
+    public void testPendulumTickAllocatesNothing() {
+        assertTickAllocatesNothing(Motion.PENDULUM, false);
+    }
+
+    @Test
+    public void testRotorTickAllocatesNothing() {
+        assertTickAllocatesNothing(Motion.ROTOR, false);
+    }
+
+    @Test
+    public void testFastTrigonometryTickAllocatesNothing() {
+        assertTickAllocatesNothing(Motion.PENDULUM, true);
+    }
+
+    /**
+     * Ticks a populated batch like the server does, and checks that no bytes are allocated once the JIT compiled the
+     * loops. The bytes allocated by reading the counter are measured first and subtracted.
+     */
+    private void assertTickAllocatesNothing(Motion motion, boolean fastTrigonometry) {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+        threadMXBean.setThreadAllocatedMemoryEnabled(true);
+        long threadId = Thread.currentThread().getId();
+
+        RecordingTrapAnimationBatch batch = RecordingTrapAnimationBatch.populate(motion, 1000, 4);
+        batch.setFastTrigonometry(fastTrigonometry);
+        TLongSet relevantCells = new TLongHashSet();
+        relevantCells.add(CharacterGrid.cellKey(0, 0, 0));
+        float gameTime = 0;
+        for (int i = 0; i < WARM_UP_TICKS; i++) {
+            gameTime += TICK;
+            tick(batch, relevantCells, gameTime);
+        }
+
+        long before = threadMXBean.getThreadAllocatedBytes(threadId);
+        long overhead = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+        before = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_TICKS; i++) {
+            gameTime += TICK;
+            tick(batch, relevantCells, gameTime);
+        }
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before - overhead;
+        assertEquals("Bytes allocated in " + MEASURED_TICKS + " ticks", 0, allocated);
+    }
+
+    private static void tick(RecordingTrapAnimationBatch batch, TLongSet relevantCells, float gameTime) {
+        batch.cull(relevantCells);
+        batch.update(gameTime, NO_CLOCK_TIMES);
+        batch.writeBack(true);
+    }
+
+    @Test
+    public void testCulledTrapsAreNotWrittenBack() {
+        RecordingTrapAnimationBatch batch = RecordingTrapAnimationBatch.populate(Motion.PENDULUM, 1, 1);
+        batch.cull(new TLongHashSet());
+        batch.update(1, NO_CLOCK_TIMES);
+        batch.writeBack(false);
+        assertEquals(0, batch.getWrites());
+    }
+
+    @Test
+    public void testUnculledTrapsAreWrittenBackAgain() {
+        RecordingTrapAnimationBatch batch = RecordingTrapAnimationBatch.populate(Motion.PENDULUM, 1, 1);
+        batch.cull(new TLongHashSet());
+        batch.update(1, NO_CLOCK_TIMES);
+        batch.writeBack(false);
+        batch.uncull();
+        batch.update(2, NO_CLOCK_TIMES);
+        batch.writeBack(false);
+        assertEquals(1, batch.getWrites());
+    }
+
+    @Test
+    public void testTrapsInRelevantCellsAreWrittenBack() {
+        RecordingTrapAnimationBatch batch = RecordingTrapAnimationBatch.populate(Motion.ROTOR, 1, 1);
+        TLongSet relevantCells = new TLongHashSet();
+        relevantCells.add(CharacterGrid.cellKey(0, 0, 0));
+        batch.cull(relevantCells);
+        batch.update(1, NO_CLOCK_TIMES);
+        batch.writeBack(false);
+        assertEquals(1, batch.getWrites());
+    }
+
+    @Test
+    public void testPendulumHitsAtTurningPoint() {
+        // the blade swings from -0.825 rad through its turning point at -1 rad back to -0.825 rad
+        EntityRef character = mockCharacter(1);
+        swing(character, new Vector3f(0, -7 * (float) Math.cos(-1), -7 * (float) Math.sin(-1)), 0, 0.6f);
+        verify(character).send(any(CharacterImpulseEvent.class));
+    }
+
+    @Test
+    public void testPendulumMissesBeyondItsAmplitude() {
+        EntityRef character = mockCharacter(1);
+        swing(character, new Vector3f(0, -7 * (float) Math.cos(-1.1), -7 * (float) Math.sin(-1.1)), 0, 0.6f);
+        verify(character, never()).send(any(CharacterImpulseEvent.class));
+    }
+
+    @Test
+    public void testPendulumMissesFarCharacters() {
+        EntityRef character = mockCharacter(1);
+        swing(character, new Vector3f(0, -7 * (float) Math.cos(-1), -7 * (float) Math.sin(-1)),
+                CharacterGrid.CELL_SIZE * 4, 0.6f);
+        verify(character, never()).send(any(CharacterImpulseEvent.class));
+    }
+
+    /**
+     * Swings a blade of amplitude 1 rad and period 2 s at the given x coordinate around its turning point at -1 rad,
+     * from the given argument before to the one after it, with a character at the given world position.
+     */
+    private void swing(EntityRef character, Vector3f position, float trapX, float turnArgument) {
+        TrapAnimationBatch batch = new TrapAnimationBatch(Motion.PENDULUM);
+        EntityRef trap = mock(EntityRef.class);
+        when(trap.getId()).thenReturn(100L);
+        batch.set(trap, 2, 1, 0, 1, new Quat4f(0, 0, 0, 1), new Vector3f(trapX, 0, 0), TrapClockSystem.NO_CLOCK);
+        CharacterGrid grid = new CharacterGrid();
+        grid.set(character, position, 0.1f, 0.1f, true);
+        TrapHazard[] hazards = {new TrapHazard(new Vector3f(0, -7, 0), new Vector3f(0.1f, 0.1f, 0.1f), 0, 1)};
+        float omega = (float) Math.PI;
+        batch.update((float) (Math.PI - turnArgument) / omega, NO_CLOCK_TIMES);
+        batch.sweepHazards(hazards, grid);
+        batch.update((float) (Math.PI + turnArgument) / omega, NO_CLOCK_TIMES);
+        batch.sweepHazards(hazards, grid);
+    }
+
+    private static EntityRef mockCharacter(long id) {
+        EntityRef character = mock(EntityRef.class);
+        when(character.getId()).thenReturn(id);
+        when(character.hasComponent(AliveCharacterComponent.class)).thenReturn(true);
+        return character;
+    }
+}
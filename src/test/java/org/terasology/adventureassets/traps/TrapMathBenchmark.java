@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+import java.util.Random;
+
+/**
+ * Compares the cost of {@link TrapMath#cos(float)} with the one of {@link Math#cos(double)} and {@link
+ * StrictMath#cos(double)}, for the arguments the {@link TrapAnimationBatch} passes: the phases of traps with periods
+ * of 1 to 4 seconds and any offset, and the half angles of the poses.
+ * <p>
+ * This is not run as part of the tests, run its main method instead.
+ */
+public final class TrapMathBenchmark {
+    private static final int ARGUMENTS = 4096;
+    private static final long WARM_UP_NANOS = 2_000_000_000L;
+    private static final long MEASURED_NANOS = 3_000_000_000L;
+
+    // keeps the results alive, so the calls are not optimized away
+    private static float sink;
+
+    private TrapMathBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(0);
+        float[] phases = new float[ARGUMENTS];
+        float[] halfAngles = new float[ARGUMENTS];
+        for (int i = 0; i < ARGUMENTS; i++) {
+            float period = 1 + 3 * random.nextFloat();
+            float time = 1000 * random.nextFloat();
+            float offset = (float) (2 * Math.PI * random.nextFloat());
+            phases[i] = (float) (2 * Math.PI / period) * (time % period) + offset;
+            halfAngles[i] = 0.5f * (float) (Math.PI / 2 * random.nextFloat()) * (float) Math.cos(phases[i]);
+        }
+        System.out.println("function           phases (ns/call)   half angles (ns/call)");
+        for (Function function : Function.values()) {
+            run(function, phases, WARM_UP_NANOS);
+            double phaseCost = run(function, phases, MEASURED_NANOS);
+            run(function, halfAngles, WARM_UP_NANOS);
+            double halfAngleCost = run(function, halfAngles, MEASURED_NANOS);
+            System.out.printf("%-16s %18.2f %23.2f%n", function.label, phaseCost, halfAngleCost);
+        }
+    }
+
+    /**
+     * Evaluates the function for all arguments, over and over for about the given time.
+     *
+     * @return the average time (in nanoseconds) per call
+     */
+    private static double run(Function function, float[] arguments, long duration) {
+        long calls = 0;
+        float sum = 0;
+        long start = System.nanoTime();
+        long elapsed;
+        do {
+            switch (function) {
+                case MATH:
+                    for (float argument : arguments) {
+                        sum += (float) Math.cos(argument);
+                    }
+                    break;
+                case STRICT_MATH:
+                    for (float argument : arguments) {
+                        sum += (float) StrictMath.cos(argument);
+                    }
+                    break;
+                default:
+                    for (float argument : arguments) {
+                        sum += TrapMath.cos(argument);
+                    }
+            }
+            calls += arguments.length;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < duration);
+        sink += sum;
+        return (double) elapsed / calls;
+    }
+
+    private enum Function {
+        MATH("Math.cos"),
+        STRICT_MATH("StrictMath.cos"),
+        TRAP_MATH("TrapMath.cos");
+
+        private final String label;
+
+        Function(String label) {
+            this.label = label;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps;
+
+import org.junit.Test;
+import org.terasology.math.geom.Quat4f;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrapMathTest {
+    private static final double MAX_COS_ERROR = 2.5e-5;
+    private static final double MAX_SIN_ERROR = 3e-5;
+    private static final int SAMPLES = 1000000;
+
+    @Test
+    public void testCosErrorWithinOnePeriod() {
+        assertCosError(-Math.PI, Math.PI);
+    }
+
+    @Test
+    public void testCosErrorUpToDocumentedRange() {
+        assertCosError(-1000, 1000);
+    }
+
+    @Test
+    public void testSinErrorWithinOnePeriod() {
+        assertSinError(-Math.PI, Math.PI);
+    }
+
+    @Test
+    public void testSinErrorUpToDocumentedRange() {
+        assertSinError(-100, 100);
+    }
+
+    @Test
+    public void testCosAtQuarterPeriods() {
+        assertEquals(1, TrapMath.cos(0), 0);
+        assertEquals(-1, TrapMath.cos((float) Math.PI), MAX_COS_ERROR);
+        assertEquals(0, TrapMath.cos((float) (Math.PI / 2)), MAX_COS_ERROR);
+        assertEquals(0, TrapMath.cos((float) (-Math.PI / 2)), MAX_COS_ERROR);
+    }
+
+    @Test
+    public void testSameRotationTolerance() {
+        Quat4f rotation = new Quat4f(0.5f, 0.5f, 0.5f, 0.5f);
+        assertTrue(TrapMath.isSameRotation(rotation, new Quat4f(0.5f, 0.5f, 0.5f, 0.5f)));
+        assertTrue(TrapMath.isSameRotation(rotation, new Quat4f(0.5f, 0.5f, 0.5f, 0.5000001f)));
+        assertTrue(TrapMath.isSameRotation(rotation, new Quat4f(-0.5f, -0.5f, -0.5f, -0.5f)));
+        // 0.01 radians about the y axis
+        assertFalse(TrapMath.isSameRotation(Quat4f.IDENTITY, new Quat4f(0, (float) Math.sin(0.005), 0,
+                (float) Math.cos(0.005))));
+        assertFalse(TrapMath.isSameRotation(Quat4f.IDENTITY, new Quat4f(0, 1, 0, 0)));
+    }
+
+    private static void assertCosError(double from, double to) {
+        for (int i = 0; i <= SAMPLES; i++) {
+            float x = (float) (from + (to - from) * i / SAMPLES);
+            assertEquals("cos(" + x + ")", Math.cos(x), TrapMath.cos(x), MAX_COS_ERROR);
+        }
+    }
+
+    private static void assertSinError(double from, double to) {
+        for (int i = 0; i <= SAMPLES; i++) {
+            float x = (float) (from + (to - from) * i / SAMPLES);
+            assertEquals("sin(" + x + ")", Math.sin(x), TrapMath.sin(x), MAX_SIN_ERROR);
+        }
+    }
+}
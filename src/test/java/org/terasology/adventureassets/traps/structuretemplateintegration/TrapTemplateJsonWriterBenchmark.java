@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps.structuretemplateintegration;
+
+import com.google.gson.Gson;
+import com.sun.management.ThreadMXBean;
+import org.terasology.adventureassets.traps.fireballlauncher.structuretemplateintegration.AddFireballLauncherComponent;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Measures the time and the allocations of exporting the fireball launchers of a template with 10k traps with the
+ * {@link TrapTemplateJsonWriter}, with rounded and with full precision floats. The reflective serializer of Gson is
+ * measured for the same specs as a reference point.
+ * <p>
+ * This is not run as part of the tests, run its main method instead.
+ */
+public final class TrapTemplateJsonWriterBenchmark {
+    private static final int TRAPS = 10000;
+    private static final int WARM_UP_EXPORTS = 200;
+    private static final int MEASURED_EXPORTS = 200;
+
+    // keeps the results alive, so the exports are not optimized away
+    private static int sink;
+
+    private TrapTemplateJsonWriterBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(0);
+        AddFireballLauncherComponent component = new AddFireballLauncherComponent();
+        component.fireballLaunchersToSpawn = new ArrayList<>(TRAPS);
+        for (int i = 0; i < TRAPS; i++) {
+            component.fireballLaunchersToSpawn.add(TrapTemplateJsonWriterTest.randomFireballLauncher(random, i));
+        }
+
+        Gson gson = new Gson();
+        System.out.println("writer                  ms/export   KiB allocated/export   KiB of JSON");
+        for (Writer writer : Writer.values()) {
+            run(writer, component, gson, WARM_UP_EXPORTS);
+            long allocated = getAllocatedBytes();
+            long start = System.nanoTime();
+            int length = run(writer, component, gson, MEASURED_EXPORTS);
+            long elapsed = System.nanoTime() - start;
+            allocated = getAllocatedBytes() - allocated;
+            System.out.printf("%-20s %12.2f %22d %13d%n", writer.label, elapsed / 1e6 / MEASURED_EXPORTS,
+                    allocated / 1024 / MEASURED_EXPORTS, length / 1024);
+        }
+    }
+
+    /**
+     * @return the length of the JSON of the last export
+     */
+    private static int run(Writer writer, AddFireballLauncherComponent component, Gson gson, int exports) {
+        String json = "";
+        for (int i = 0; i < exports; i++) {
+            switch (writer) {
+                case ROUNDED:
+                    json = new TrapTemplateJsonWriter(6).write(component);
+                    break;
+                case FULL_PRECISION:
+                    json = new TrapTemplateJsonWriter(-1).write(component);
+                    break;
+                default:
+                    json = gson.toJson(component);
+            }
+            sink += json.length();
+        }
+        return json.length();
+    }
+
+    private static long getAllocatedBytes() {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threadMXBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private enum Writer {
+        ROUNDED("6 decimals"),
+        FULL_PRECISION("full precision"),
+        GSON("Gson reflection");
+
+        private final String label;
+
+        Writer(String label) {
+            this.label = label;
+        }
+    }
+}
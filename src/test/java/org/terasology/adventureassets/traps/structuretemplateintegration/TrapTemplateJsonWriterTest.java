@@ -0,0 +1,292 @@
+/*
+ * Copyright 2017 MovingBlocks
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.terasology.adventureassets.traps.structuretemplateintegration;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+import org.terasology.adventureassets.traps.fireballlauncher.VolleyPattern;
+import org.terasology.adventureassets.traps.fireballlauncher.structuretemplateintegration.AddFireballLauncherComponent;
+import org.terasology.adventureassets.traps.swingingblade.structuretemplateintegration.AddSwingingBladeComponent;
+import org.terasology.entitySystem.Component;
+import org.terasology.math.geom.Quat4f;
+import org.terasology.math.geom.Vector3f;
+import org.terasology.math.geom.Vector3i;
+import org.terasology.reflection.MappedContainer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrapTemplateJsonWriterTest {
+    /**
+     * Reads vectors and quaternions from JSON arrays, like the type handlers of the engine do.
+     */
+    private static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapter(Vector3i.class, (JsonDeserializer<Vector3i>) (json, type, context) -> {
+                JsonArray array = json.getAsJsonArray();
+                return new Vector3i(array.get(0).getAsInt(), array.get(1).getAsInt(), array.get(2).getAsInt());
+            })
+            .registerTypeAdapter(Vector3f.class, (JsonDeserializer<Vector3f>) (json, type, context) -> {
+                JsonArray array = json.getAsJsonArray();
+                return new Vector3f(array.get(0).getAsFloat(), array.get(1).getAsFloat(), array.get(2).getAsFloat());
+            })
+            .registerTypeAdapter(Quat4f.class, (JsonDeserializer<Quat4f>) (json, type, context) -> {
+                JsonArray array = json.getAsJsonArray();
+                return new Quat4f(array.get(0).getAsFloat(), array.get(1).getAsFloat(), array.get(2).getAsFloat(),
+                        array.get(3).getAsFloat());
+            })
+            .create();
+
+    @Test
+    public void testFloatsRoundedToPrecision() {
+        assertEquals("-0.5", writeFloat(-0.5f, 3));
+        assertEquals("0.05", writeFloat(0.05f, 3));
+        assertEquals("0.001", writeFloat(0.0005f, 3));
+        assertEquals("-0.001", writeFloat(-0.0006f, 3));
+        assertEquals("0", writeFloat(-0.0004f, 3));
+        assertEquals("0", writeFloat(1e-7f, 3));
+        assertEquals("2", writeFloat(1.9999f, 3));
+        assertEquals("123456.703", writeFloat(123456.7f, 3));
+        assertEquals("-10000000000", writeFloat(-1e10f, 3));
+        // the float closest to 0.1 is slightly larger
+        assertEquals("0.100000001", writeFloat(0.1f, 9));
+        assertEquals("2", writeFloat(1.5f, 0));
+    }
+
+    @Test
+    public void testFloatsTooLargeToScaleWrittenInFull() {
+        assertEquals("1.0E20", writeFloat(1e20f, 3));
+        assertEquals("-3.4028235E38", writeFloat(-Float.MAX_VALUE, 3));
+        assertEquals("1.0E10", writeFloat(1e10f, 9));
+    }
+
+    @Test
+    public void testFloatsWithFullPrecision() {
+        assertEquals("1.0E-7", writeFloat(1e-7f, -1));
+        assertEquals("0.05", writeFloat(0.05f, -1));
+        assertEquals("-0.5", writeFloat(-0.5f, -1));
+        assertEquals(0.1f, Float.parseFloat(writeFloat(0.1f, -1)), 0);
+    }
+
+    @Test
+    public void testNonFiniteFloatsLeftOut() {
+        assertEquals("{}", writeSpec(floatSpec(Float.NaN), 3));
+        assertEquals("{}", writeSpec(floatSpec(Float.POSITIVE_INFINITY), -1));
+
+        AddFireballLauncherComponent.FireballLauncherToSpawn spec =
+                new AddFireballLauncherComponent.FireballLauncherToSpawn();
+        spec.direction = new Vector3f(0, Float.NaN, 1);
+        spec.timePeriod = 2;
+        String json = writeSpec(spec, 3);
+        assertFalse(json, json.contains("direction"));
+        assertTrue(json, json.contains("\"timePeriod\": 2"));
+    }
+
+    @Test
+    public void testStringsEscaped() {
+        String value = "a \"quoted\" back\\slash\nnew line\ttab\r\b\f\u0001 \u00e9\u20ac";
+        AddSwingingBladeComponent.SwingingBladesToSpawn spec = new AddSwingingBladeComponent.SwingingBladesToSpawn();
+        spec.clockGroup = value;
+        String json = writeSpec(spec, 3);
+        assertTrue(json, json.contains("\"clockGroup\": "
+                + "\"a \\\"quoted\\\" back\\\\slash\\nnew line\\ttab\\r\\b\\f\\u0001 \u00e9\u20ac\""));
+        assertEquals(value, new JsonParser().parse(json).getAsJsonObject().get("clockGroup").getAsString());
+    }
+
+    @Test
+    public void testDefaultFieldsLeftOut() {
+        AddSwingingBladeComponent.SwingingBladesToSpawn spec = new AddSwingingBladeComponent.SwingingBladesToSpawn();
+        assertEquals("{}", writeSpec(spec, 3));
+
+        spec.position = new Vector3i(1, -2, 3);
+        spec.isSwinging = false;
+        JsonObject json = new JsonParser().parse(writeSpec(spec, 3)).getAsJsonObject();
+        assertEquals(2, json.entrySet().size());
+        assertEquals("[1,-2,3]", json.get("position").toString());
+        assertFalse(json.get("isSwinging").getAsBoolean());
+    }
+
+    @Test
+    public void testComponentLayout() {
+        AddSwingingBladeComponent component = new AddSwingingBladeComponent();
+        component.swingingBladesToSpawn = new ArrayList<>();
+        assertEquals("    \"AddSwingingBlade\": {\n        \"swingingBladesToSpawn\": [\n        ]\n    }",
+                new TrapTemplateJsonWriter(3).write(component));
+
+        component.swingingBladesToSpawn = null;
+        assertEquals("    \"AddSwingingBlade\": {\n        \"swingingBladesToSpawn\": [\n        ]\n    }",
+                new TrapTemplateJsonWriter(3).write(component));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSpecWithoutMappedContainerRejected() {
+        new TrapTemplateJsonWriter(3).write(new UnmappedComponent());
+    }
+
+    @Test
+    public void testFireballLaunchersRoundTrip() {
+        Random random = new Random(0);
+        AddFireballLauncherComponent component = new AddFireballLauncherComponent();
+        component.fireballLaunchersToSpawn = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            component.fireballLaunchersToSpawn.add(randomFireballLauncher(random, i));
+        }
+
+        for (int precision : new int[]{-1, 3}) {
+            // half of the last decimal, plus the float rounding of values up to 100
+            float tolerance = precision < 0 ? 0 : 0.0005f + Math.ulp(100f);
+            AddFireballLauncherComponent loaded = load(new TrapTemplateJsonWriter(precision).write(component),
+                    AddFireballLauncherComponent.class);
+            assertEquals(component.fireballLaunchersToSpawn.size(), loaded.fireballLaunchersToSpawn.size());
+            for (int i = 0; i < component.fireballLaunchersToSpawn.size(); i++) {
+                AddFireballLauncherComponent.FireballLauncherToSpawn expected =
+                        component.fireballLaunchersToSpawn.get(i);
+                AddFireballLauncherComponent.FireballLauncherToSpawn actual = loaded.fireballLaunchersToSpawn.get(i);
+                assertEquals(expected.position, actual.position);
+                assertEquals(expected.isFiring, actual.isFiring);
+                assertEquals(expected.timePeriod, actual.timePeriod, tolerance);
+                assertEquals(expected.offset, actual.offset, tolerance);
+                assertEquals(expected.direction.x, actual.direction.x, tolerance);
+                assertEquals(expected.direction.y, actual.direction.y, tolerance);
+                assertEquals(expected.direction.z, actual.direction.z, tolerance);
+                assertEquals(expected.maxDistance, actual.maxDistance);
+                assertEquals(expected.damageAmount, actual.damageAmount);
+                assertEquals(expected.activationDistance, actual.activationDistance, tolerance);
+                assertEquals(expected.volleyPattern, actual.volleyPattern);
+                assertEquals(expected.volleySize, actual.volleySize);
+                assertEquals(expected.volleySpacing, actual.volleySpacing, tolerance);
+                assertEquals(expected.clientSimulated, actual.clientSimulated);
+                assertEquals(expected.isTracking, actual.isTracking);
+                assertEquals(expected.trackingAngle, actual.trackingAngle, tolerance);
+            }
+        }
+    }
+
+    @Test
+    public void testSwingingBladesRoundTrip() {
+        Random random = new Random(1);
+        AddSwingingBladeComponent component = new AddSwingingBladeComponent();
+        component.swingingBladesToSpawn = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            AddSwingingBladeComponent.SwingingBladesToSpawn spec =
+                    new AddSwingingBladeComponent.SwingingBladesToSpawn();
+            spec.position = new Vector3i(random.nextInt(200) - 100, random.nextInt(20), random.nextInt(200) - 100);
+            spec.rotation = new Quat4f((float) (random.nextInt(4) * Math.PI / 2), 0, 0);
+            if (random.nextBoolean()) {
+                spec.timePeriod = 1 + 3 * random.nextFloat();
+                spec.amplitude = random.nextFloat();
+                spec.offset = 2 * random.nextFloat();
+            }
+            spec.isSwinging = random.nextInt(4) != 0;
+            spec.clockGroup = random.nextBoolean() ? "" : "group " + random.nextInt(5);
+            component.swingingBladesToSpawn.add(spec);
+        }
+
+        AddSwingingBladeComponent loaded = load(new TrapTemplateJsonWriter(-1).write(component),
+                AddSwingingBladeComponent.class);
+        assertEquals(component.swingingBladesToSpawn.size(), loaded.swingingBladesToSpawn.size());
+        for (int i = 0; i < component.swingingBladesToSpawn.size(); i++) {
+            AddSwingingBladeComponent.SwingingBladesToSpawn expected = component.swingingBladesToSpawn.get(i);
+            AddSwingingBladeComponent.SwingingBladesToSpawn actual = loaded.swingingBladesToSpawn.get(i);
+            assertEquals(expected.position, actual.position);
+            assertEquals(expected.rotation, actual.rotation);
+            assertEquals(expected.timePeriod, actual.timePeriod, 0);
+            assertEquals(expected.amplitude, actual.amplitude, 0);
+            assertEquals(expected.offset, actual.offset, 0);
+            assertEquals(expected.isSwinging, actual.isSwinging);
+            assertEquals(expected.clockGroup, actual.clockGroup);
+        }
+    }
+
+    static AddFireballLauncherComponent.FireballLauncherToSpawn randomFireballLauncher(Random random, int index) {
+        AddFireballLauncherComponent.FireballLauncherToSpawn spec =
+                new AddFireballLauncherComponent.FireballLauncherToSpawn();
+        spec.position = new Vector3i(index % 100 - 50, random.nextInt(20), index / 100);
+        spec.isFiring = random.nextBoolean();
+        spec.timePeriod = 0.5f + 4 * random.nextFloat();
+        spec.offset = random.nextInt(3) == 0 ? 0 : random.nextFloat() - 0.5f;
+        float yaw = (float) (2 * Math.PI * random.nextFloat());
+        spec.direction = new Vector3f((float) Math.sin(yaw), 0, (float) Math.cos(yaw));
+        spec.maxDistance = 10 + random.nextInt(40);
+        spec.damageAmount = 1 + random.nextInt(20);
+        spec.activationDistance = random.nextBoolean() ? 0 : 2 + 8 * random.nextFloat();
+        spec.volleyPattern = VolleyPattern.values()[random.nextInt(VolleyPattern.values().length)];
+        spec.volleySize = 1 + random.nextInt(9);
+        spec.volleySpacing = 0.05f + random.nextFloat();
+        spec.clientSimulated = random.nextBoolean();
+        spec.isTracking = random.nextInt(4) == 0;
+        spec.trackingAngle = 10 + 60 * random.nextFloat();
+        return spec;
+    }
+
+    /**
+     * Parses the JSON of a component the way it is embedded into a structure template, with default values for the
+     * fields which were left out.
+     */
+    private static <T extends Component> T load(String componentJson, Class<T> componentClass) {
+        JsonObject prefab = new JsonParser().parse("{\n" + componentJson + "\n}").getAsJsonObject();
+        String name = componentClass.getSimpleName().substring(0, componentClass.getSimpleName().length()
+                - "Component".length());
+        return GSON.fromJson(prefab.get(name), componentClass);
+    }
+
+    private static String writeFloat(float value, int precision) {
+        String json = writeSpec(floatSpec(value), precision);
+        assertEquals(1, new JsonParser().parse(json).getAsJsonObject().entrySet().size());
+        return json.substring(json.indexOf(": ") + 2, json.lastIndexOf('\n'));
+    }
+
+    /**
+     * @return the JSON object written for the spec, without its indentation
+     */
+    private static String writeSpec(Object spec, int precision) {
+        SpecComponent component = new SpecComponent();
+        component.specs = Collections.singletonList(spec);
+        String json = new TrapTemplateJsonWriter(precision).write(component);
+        int start = json.indexOf('{', json.indexOf('['));
+        String object = json.substring(start, json.lastIndexOf('}', json.lastIndexOf(']')) + 1);
+        return object.replaceAll("\n +", "\n");
+    }
+
+    private static FloatSpec floatSpec(float value) {
+        FloatSpec spec = new FloatSpec();
+        spec.value = value;
+        return spec;
+    }
+
+    public static class SpecComponent implements Component {
+        public List<Object> specs;
+    }
+
+    public static class UnmappedComponent implements Component {
+        public List<Object> specs = Collections.singletonList(new Object());
+    }
+
+    @MappedContainer
+    public static class FloatSpec {
+        public float value;
+    }
+}